@@ -0,0 +1,73 @@
+package org.scm4j.installer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Catalog refresh, filling the product rows the way the product window does and filtering them as the user types.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+
+	@Param({"10", "100", "1000", "10000"})
+	public int products;
+
+	private SyntheticDeployerEngine engine;
+	private Catalog catalog;
+	private ProductRows rows;
+
+	@Setup
+	public void setUp() throws Exception {
+		engine = new SyntheticDeployerEngine(Files.createTempDirectory("jmh").toFile(), products, 20, 42);
+		catalog = new CatalogLoader(engine).refresh();
+		rows = fillProductsAndVersions();
+	}
+
+	@Benchmark
+	public Catalog refresh() throws InterruptedException {
+		return new CatalogLoader(engine).refresh();
+	}
+
+	/**
+	 * Same as the product window does with a catalog in memory: version indexes and rows of visible products.
+	 */
+	@Benchmark
+	public ProductRows fillProductsAndVersions() {
+		Map<String, String> deployed = engine.mapDeployedProducts();
+		ProductRows res = new ProductRows();
+		res.fill(catalog, false, false, productName -> ProductRows.toInstalledText(deployed.get(productName)),
+				new HashMap<>());
+		return res;
+	}
+
+	@Benchmark
+	public int filterAsTyped() {
+		int visible = 0;
+		String typed = "kitchen-1";
+		for (int i = 1; i <= typed.length(); i++) {
+			rows.setFilter(typed.substring(0, i));
+			visible += rows.size();
+		}
+		rows.setFilter("");
+		return visible;
+	}
+}
@@ -0,0 +1,74 @@
+package org.scm4j.installer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Capture of the deployer output under high line rates. Lines are printed through a PrintStream the way the
+ * deployer does, some of them are status lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogSinkBenchmark {
+
+	@Param({"80", "1000"})
+	public int lineLength;
+
+	@Param({"10"})
+	public int statusEvery;
+
+	private File logFile;
+	private LogSink logSink;
+	private PrintStream printStream;
+	private final AtomicLong statuses = new AtomicLong();
+	private String line;
+	private String statusLine;
+	private long lines;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		logFile = Files.createTempFile("jmh", ".log").toFile();
+		logSink = new LogSink(logFile, StandardCharsets.UTF_8, status -> statuses.incrementAndGet());
+		printStream = new PrintStream(logSink, false, "UTF-8");
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < lineLength)
+			sb.append("copying file ").append(sb.length()).append(' ');
+		line = sb.substring(0, lineLength);
+		// status lines start with time
+		statusLine = "12-30-45.123   " + line.substring(0, Math.max(0, lineLength - 15));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		printStream.close();
+		Files.deleteIfExists(logFile.toPath());
+	}
+
+	@Benchmark
+	public void println() {
+		printStream.println(++lines % statusEvery == 0 ? statusLine : line);
+	}
+}
@@ -0,0 +1,72 @@
+package org.scm4j.installer;
+
+import org.scm4j.deployer.api.ProductInfo;
+import org.scm4j.deployer.engine.DeployerEngine;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Engine serving a generated catalog from memory, so benchmarks measure the installer and not the repository.
+ */
+public class SyntheticDeployerEngine extends DeployerEngine {
+
+	private static final String[] PREFIXES = {"untill", "pos", "kitchen", "backoffice", "tpapi", "jpos", "drivers"};
+
+	private final Map<String, ProductInfo> products = new LinkedHashMap<>();
+	private final Map<String, Map<String, Boolean>> versions = new HashMap<>();
+	private final Map<String, String> deployed = new HashMap<>();
+
+	/**
+	 * @param productCount number of products, every 10th is hidden
+	 * @param versionCount released versions per product, a snapshot and a release candidate are added to them
+	 */
+	public SyntheticDeployerEngine(File workingFolder, int productCount, int versionCount, long seed) {
+		super(null, workingFolder);
+		Random random = new Random(seed);
+		for (int i = 0; i < productCount; i++) {
+			String productName = PREFIXES[random.nextInt(PREFIXES.length)] + '-' + i;
+			products.put(productName, new ProductInfo(productName, i % 10 == 0));
+			Map<String, Boolean> productVersions = new HashMap<>();
+			for (int j = 0; j < versionCount; j++)
+				productVersions.put(randomVersion(random), random.nextInt(4) != 0);
+			productVersions.put(randomVersion(random) + "-RC1", true);
+			productVersions.put(randomVersion(random) + "-SNAPSHOT", true);
+			versions.put(productName, productVersions);
+			if (random.nextInt(3) == 0)
+				deployed.put(productName, productVersions.keySet().iterator().next());
+		}
+	}
+
+	public static String randomVersion(Random random) {
+		return random.nextInt(200) + "." + random.nextInt(20) + "." + random.nextInt(100);
+	}
+
+	@Override
+	public Map<String, ProductInfo> listProducts() {
+		return products;
+	}
+
+	@Override
+	public Map<String, ProductInfo> refreshProducts() {
+		return products;
+	}
+
+	@Override
+	public Map<String, Boolean> listProductVersions(String productName) {
+		return versions.get(productName);
+	}
+
+	@Override
+	public Map<String, Boolean> refreshProductVersions(String productName) {
+		return versions.get(productName);
+	}
+
+	@Override
+	public Map<String, String> mapDeployedProducts() {
+		return deployed;
+	}
+}
@@ -0,0 +1,89 @@
+package org.scm4j.installer;
+
+import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Version indexing and comparison against maven version parsing the product window used to do on every comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int versions;
+
+	private Map<String, Boolean> versionsVisibility;
+	private List<String> versionList;
+	private VersionIndex index;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		versionsVisibility = new HashMap<>();
+		for (int i = 0; i < versions; i++)
+			versionsVisibility.put(SyntheticDeployerEngine.randomVersion(random)
+					+ (random.nextInt(10) == 0 ? "-RC" + random.nextInt(5) : ""), random.nextBoolean());
+		versionList = new ArrayList<>(versionsVisibility.keySet());
+		index = new VersionIndex(versionsVisibility);
+	}
+
+	@Benchmark
+	public VersionIndex index() {
+		return new VersionIndex(versionsVisibility);
+	}
+
+	@Benchmark
+	public List<String> sortByMavenVersions() {
+		List<DefaultArtifactVersion> parsed = new ArrayList<>(versionList.size());
+		for (String version : versionList)
+			parsed.add(new DefaultArtifactVersion(version));
+		parsed.sort(Collections.reverseOrder());
+		List<String> res = new ArrayList<>(parsed.size());
+		for (DefaultArtifactVersion version : parsed)
+			res.add(version.toString());
+		return res;
+	}
+
+	/**
+	 * Compares every version with the next one, as buttons are refreshed on selection.
+	 */
+	@Benchmark
+	public int compareIndexed() {
+		int res = 0;
+		for (int i = 1; i < versionList.size(); i++)
+			res += index.compare(versionList.get(i - 1), versionList.get(i));
+		return res;
+	}
+
+	@Benchmark
+	public int compareByMavenVersions() {
+		int res = 0;
+		for (int i = 1; i < versionList.size(); i++)
+			res += new DefaultArtifactVersion(versionList.get(i - 1))
+					.compareTo(new DefaultArtifactVersion(versionList.get(i)));
+		return res;
+	}
+}
@@ -0,0 +1,386 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.FileUtils;
+import org.scm4j.deployer.api.DeploymentResult;
+import org.scm4j.deployer.engine.DeployerEngine;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resident installer process keeping the engine and the catalog warm, so repeated commands do not pay for JVM, engine
+ * and catalog startup. A command is one line "token TAB command TAB arguments" per connection to the loopback port,
+ * the answer is one line "OK TAB fields" or "ERROR TAB message". The port and the token are written to the agent
+ * file of the working folder, so only those who can run the installer can talk to the agent. Engine commands run one
+ * at a time.
+ */
+public class Agent {
+
+	public static final String COMMAND_DOWNLOAD = "download";
+	public static final String COMMAND_DEPLOY = "deploy";
+	public static final String COMMAND_STATUS = "status";
+	public static final String COMMAND_STOP = "stop";
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(Agent.class);
+	private static final String OK = "OK";
+	private static final String ERROR = "ERROR";
+	private static final String SEPARATOR = "\t";
+	private static final String PORT_PROPERTY = "port";
+	private static final String TOKEN_PROPERTY = "token";
+
+	private final DeployerEngine deployerEngine;
+	private final ExecutorService engineExecutor = Executors.newSingleThreadExecutor(
+			CatalogLoader.daemonThreads("agent-engine"));
+	private final String token;
+	private final long startedAt = System.currentTimeMillis();
+	private final AtomicInteger commandsServed = new AtomicInteger();
+	private volatile String currentCommand;
+	private volatile Catalog catalog;
+	private ServerSocket serverSocket;
+
+	public Agent(DeployerEngine deployerEngine) {
+		this.deployerEngine = deployerEngine;
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		token = Checksums.toHex(bytes);
+	}
+
+	/**
+	 * Serves commands until the agent is stopped.
+	 */
+	public void run() throws IOException {
+		synchronized (this) {
+			serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		}
+		writeAgentFile(serverSocket.getLocalPort());
+		LOG.info("Agent started on port " + serverSocket.getLocalPort());
+		engineExecutor.execute(() -> {
+			try {
+				catalog = CLI.loadCatalog(deployerEngine);
+			} catch (Exception e) {
+				LOG.warn("Can't warm up catalog: " + e.toString());
+			}
+		});
+		ExecutorService connections = Executors.newCachedThreadPool(CatalogLoader.daemonThreads("agent"));
+		try {
+			while (true) {
+				Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (SocketException e) {
+					// closed by stop
+					break;
+				}
+				connections.execute(() -> serve(socket));
+			}
+		} finally {
+			connections.shutdownNow();
+			engineExecutor.shutdownNow();
+			deleteAgentFile();
+			LOG.info("Agent stopped, " + commandsServed.get() + " commands served");
+		}
+	}
+
+	public synchronized void stop() {
+		try {
+			if (serverSocket != null)
+				serverSocket.close();
+		} catch (IOException e) {
+			LOG.warn("Can't close agent socket: " + e.toString());
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket closeable = socket;
+		     BufferedReader in = new BufferedReader(new InputStreamReader(closeable.getInputStream(),
+				     StandardCharsets.UTF_8));
+		     PrintWriter out = new PrintWriter(new OutputStreamWriter(closeable.getOutputStream(),
+				     StandardCharsets.UTF_8))) {
+			String line = in.readLine();
+			String[] parts = line == null ? new String[0] : line.split(SEPARATOR, -1);
+			String answer;
+			if (parts.length < 2 || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+					parts[0].getBytes(StandardCharsets.UTF_8))) {
+				answer = ERROR + SEPARATOR + "Invalid agent token";
+			} else {
+				try {
+					answer = OK + SEPARATOR + execute(Arrays.copyOfRange(parts, 1, parts.length));
+				} catch (Exception e) {
+					LOG.warn("Agent command " + String.join(" ", Arrays.copyOfRange(parts, 1, parts.length))
+							+ " failed: " + e.toString());
+					answer = ERROR + SEPARATOR + e.toString().replaceAll("\\s", " ");
+				}
+			}
+			out.println(answer);
+		} catch (IOException e) {
+			LOG.warn("Agent connection failed: " + e.toString());
+		}
+	}
+
+	/**
+	 * @return answer fields separated by tabs
+	 */
+	private String execute(String[] command) throws Exception {
+		switch (command[0]) {
+		case COMMAND_STATUS:
+			return getStatus();
+		case COMMAND_STOP:
+			stop();
+			return "Agent is stopping";
+		case COMMAND_DOWNLOAD:
+		case COMMAND_DEPLOY:
+			if (command.length < 3)
+				throw new IllegalArgumentException("Product and version are required");
+			String progressFile = command.length > 3 && !command[3].isEmpty() ? command[3] : null;
+			long bytesPerSecond = command.length > 4 && !command[4].isEmpty()
+					? CLI.parseBandwidthLimit(command[4]) : 0;
+			boolean silent = command.length > 5 && Boolean.parseBoolean(command[5]);
+			boolean afterReboot = command.length > 6 && Boolean.parseBoolean(command[6]);
+			Future<String> future = engineExecutor.submit(() -> runEngineCommand(command[0], command[1],
+					command[2], progressFile, bytesPerSecond, silent, afterReboot));
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+		default:
+			throw new IllegalArgumentException("Unknown agent command: " + command[0]);
+		}
+	}
+
+	/**
+	 * Runs the engine in the silent and after reboot modes of the client, the modes are system properties of the
+	 * process, so they are set for the call only.
+	 *
+	 * @return the version for download, the result, the version and the result message for deploy
+	 */
+	private String runEngineCommand(String command, String product, String version, String progressFile,
+	                                long bytesPerSecond, boolean silent, boolean afterReboot) throws Exception {
+		currentCommand = command + ' ' + product + ' ' + version;
+		String agentSilent = System.getProperty(CLI.SILENT_MODE_PROPERTY_NAME);
+		String agentAfterReboot = System.getProperty(CLI.AFTER_REBOOT_PROPERTY_NAME);
+		setProperty(CLI.SILENT_MODE_PROPERTY_NAME, silent ? Boolean.toString(true) : null);
+		setProperty(CLI.AFTER_REBOOT_PROPERTY_NAME, afterReboot ? Boolean.toString(true) : null);
+		Metrics.getInstance().reset();
+		MirrorRelay relay = MirrorRelay.getInstance();
+		relay.setBandwidthLimiter(bytesPerSecond > 0 ? new BandwidthLimiter(bytesPerSecond) : null);
+		TransferProgress transferProgress = new TransferProgress();
+		ScheduledExecutorService progressWriter = null;
+		if (progressFile != null) {
+			relay.setTransferProgress(transferProgress);
+			progressWriter = Executors.newSingleThreadScheduledExecutor(
+					CatalogLoader.daemonThreads("agent-progress"));
+			progressWriter.scheduleWithFixedDelay(() -> writeProgress(transferProgress, progressFile), 1, 1,
+					TimeUnit.SECONDS);
+		}
+		try {
+			if (version.equalsIgnoreCase(CLI.LATEST_VERSION))
+				version = resolveLatestVersion(product);
+			if (command.equals(COMMAND_DOWNLOAD)) {
+				Metrics.getInstance().timeDownload(deployerEngine, product, version);
+				return version;
+			}
+			Platform.copyJreIfNotExists();
+			DeploymentResult result = Metrics.getInstance().timeDeploy(deployerEngine, product, version);
+			LOG.info("result of deploy " + product + ' ' + version + " is " + result.toString());
+			String resultMsg = result.getErrorMsg() == null ? "" : result.getErrorMsg();
+			return result.name() + SEPARATOR + version + SEPARATOR + resultMsg.replaceAll("\\s", " ");
+		} finally {
+			if (progressWriter != null) {
+				progressWriter.shutdownNow();
+				writeProgress(transferProgress, progressFile);
+				relay.setTransferProgress(null);
+				CLI.writeMetrics(new File(progressFile).getParentFile());
+			}
+			relay.setBandwidthLimiter(null);
+			setProperty(CLI.SILENT_MODE_PROPERTY_NAME, agentSilent);
+			setProperty(CLI.AFTER_REBOOT_PROPERTY_NAME, agentAfterReboot);
+			commandsServed.incrementAndGet();
+			currentCommand = null;
+		}
+	}
+
+	private static void setProperty(String name, String value) {
+		if (value == null)
+			System.clearProperty(name);
+		else
+			System.setProperty(name, value);
+	}
+
+	private static void writeProgress(TransferProgress transferProgress, String progressFile) {
+		try {
+			transferProgress.writeTo(new File(progressFile));
+		} catch (IOException e) {
+			LOG.warn("Can't write progress to " + progressFile + ": " + e.toString());
+		}
+	}
+
+	/**
+	 * Takes the latest version from the warm catalog, refreshes it first if it is stale.
+	 */
+	private String resolveLatestVersion(String product) throws InterruptedException {
+		Catalog warmCatalog = catalog;
+		if (warmCatalog == null || !CatalogCache.isFresh(warmCatalog)) {
+			warmCatalog = CLI.loadCatalog(deployerEngine);
+			catalog = warmCatalog;
+		}
+		if (warmCatalog.hasVersions(product)) {
+			String latestVersion = warmCatalog.getLatestVersion(product);
+			if (latestVersion != null)
+				return latestVersion;
+		}
+		return CLI.resolveLatestVersion(deployerEngine, product);
+	}
+
+	private String getStatus() {
+		Catalog warmCatalog = catalog;
+		String running = currentCommand;
+		return "Agent up for " + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - startedAt)
+				+ " s, " + commandsServed.get() + " commands served, "
+				+ (running == null ? "idle" : "running " + running) + ", catalog "
+				+ (warmCatalog == null ? "not loaded" : "revision " + warmCatalog.getRevision()
+				+ (CatalogCache.isFresh(warmCatalog) ? "" : " (stale)"));
+	}
+
+	/**
+	 * Sends the command to the running agent.
+	 *
+	 * @return answer fields or null if no agent is running
+	 * @throws IOException if the agent failed the command or the connection broke after the command was sent
+	 */
+	public static String[] send(String... command) throws IOException {
+		Properties agentFile = readAgentFile();
+		if (agentFile == null)
+			return null;
+		int port = Integer.parseInt(agentFile.getProperty(PORT_PROPERTY, "0"));
+		try (Socket socket = new Socket()) {
+			try {
+				socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+						Settings.HTTP_TIMEOUT_MILLIS);
+			} catch (IOException e) {
+				LOG.info("Agent is not running: " + e.toString());
+				return null;
+			}
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+					StandardCharsets.UTF_8));
+			out.println(agentFile.getProperty(TOKEN_PROPERTY, "") + SEPARATOR + String.join(SEPARATOR, command));
+			out.flush();
+			String line = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+					StandardCharsets.UTF_8)).readLine();
+			if (line == null)
+				throw new IOException("Agent closed connection without answer");
+			String[] parts = line.split(SEPARATOR, -1);
+			if (!parts[0].equals(OK))
+				throw new IOException(parts.length > 1 ? parts[1] : line);
+			return Arrays.copyOfRange(parts, 1, parts.length);
+		}
+	}
+
+	private static File getAgentFile() {
+		return new File(Settings.getWorkingFolder(), Settings.AGENT_FILE_NAME);
+	}
+
+	private static Properties readAgentFile() {
+		File agentFile = getAgentFile();
+		if (!agentFile.exists())
+			return null;
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(agentFile.toPath())) {
+			properties.load(in);
+		} catch (IOException e) {
+			LOG.warn("Can't read agent file " + agentFile + ": " + e.toString());
+			return null;
+		}
+		return properties;
+	}
+
+	/**
+	 * The token is written to a file readable by the agent account and administrators only.
+	 */
+	private void writeAgentFile(int port) throws IOException {
+		File agentFile = getAgentFile();
+		FileUtils.forceMkdir(agentFile.getParentFile());
+		Properties properties = new Properties();
+		properties.setProperty(PORT_PROPERTY, Integer.toString(port));
+		properties.setProperty(TOKEN_PROPERTY, token);
+		File tmpFile = new File(agentFile.getPath() + ".tmp");
+		createPrivateFile(tmpFile.toPath());
+		try (OutputStream out = Files.newOutputStream(tmpFile.toPath())) {
+			properties.store(out, null);
+		}
+		Files.move(tmpFile.toPath(), agentFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Creates an empty file only the owner and administrators have access to.
+	 */
+	private static void createPrivateFile(Path path) throws IOException {
+		Files.deleteIfExists(path);
+		if (Files.getFileStore(path.getParent()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+			return;
+		}
+		Files.createFile(path);
+		AclFileAttributeView view = Files.getFileAttributeView(path, AclFileAttributeView.class);
+		if (view == null)
+			throw new IOException("Can't restrict access to " + path);
+		UserPrincipalLookupService lookupService = path.getFileSystem().getUserPrincipalLookupService();
+		List<AclEntry> acl = new ArrayList<>();
+		for (UserPrincipal principal : Arrays.asList(view.getOwner(),
+				lookupService.lookupPrincipalByGroupName("Administrators")))
+			acl.add(AclEntry.newBuilder()
+					.setType(AclEntryType.ALLOW)
+					.setPrincipal(principal)
+					.setPermissions(EnumSet.allOf(AclEntryPermission.class))
+					.build());
+		view.setAcl(acl);
+	}
+
+	/**
+	 * Deletes the agent file unless another agent has replaced it.
+	 */
+	private void deleteAgentFile() {
+		Properties properties = readAgentFile();
+		if (properties != null && token.equals(properties.getProperty(TOKEN_PROPERTY)))
+			FileUtils.deleteQuietly(getAgentFile());
+	}
+}
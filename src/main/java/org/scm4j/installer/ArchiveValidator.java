@@ -0,0 +1,137 @@
+package org.scm4j.installer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Checks zip and gzip archives while they are downloaded, so a corrupted transfer is aborted as soon as the broken
+ * entry arrives instead of after the checksum of the whole file. Bytes written are inflated by a background thread
+ * reading them through a pipe.
+ */
+class ArchiveValidator extends OutputStream {
+
+	private static final String[] ZIP_EXTENSIONS = {".zip", ".jar", ".war"};
+	private static final String GZIP_EXTENSION = ".gz";
+
+	private final PipedOutputStream pipe = new PipedOutputStream();
+	private final PipedInputStream in;
+	private final Thread thread;
+	private volatile IOException error;
+
+	private ArchiveValidator(String path, boolean zip) throws IOException {
+		in = new PipedInputStream(pipe, Settings.COPY_BUFFER_SIZE * 4);
+		thread = CatalogLoader.daemonThreads("archive-validator").newThread(() -> validate(path, zip));
+		thread.start();
+	}
+
+	static boolean isSupported(String path) {
+		return isZip(path) || path.endsWith(GZIP_EXTENSION);
+	}
+
+	private static boolean isZip(String path) {
+		for (String extension : ZIP_EXTENSIONS)
+			if (path.endsWith(extension))
+				return true;
+		return false;
+	}
+
+	static ArchiveValidator start(String path) throws IOException {
+		return new ArchiveValidator(path, isZip(path));
+	}
+
+	private void validate(String path, boolean zip) {
+		byte[] buffer = new byte[Settings.COPY_BUFFER_SIZE];
+		try {
+			if (zip) {
+				// reading an entry to its end checks its CRC
+				ZipInputStream zipIn = new ZipInputStream(in);
+				while (zipIn.getNextEntry() != null)
+					while (zipIn.read(buffer) != -1) ;
+			} else {
+				InputStream gzipIn = new GZIPInputStream(in, buffer.length);
+				while (gzipIn.read(buffer) != -1) ;
+			}
+			// the central directory is not read by ZipInputStream
+			while (in.read(buffer) != -1) ;
+		} catch (IOException | RuntimeException e) {
+			// ZipInputStream throws IllegalArgumentException on entry names which are not UTF-8
+			if (!Thread.currentThread().isInterrupted())
+				error = new CorruptArchiveException(path + " is corrupted: " + e.toString());
+			closeQuietly();
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkError();
+		try {
+			pipe.write(b, off, len);
+		} catch (IOException e) {
+			// the pipe is closed by the failed validation
+			checkError();
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits for the validation of all the bytes written.
+	 *
+	 * @throws CorruptArchiveException if the archive is corrupted or truncated
+	 */
+	void finish() throws IOException {
+		pipe.close();
+		join();
+		checkError();
+	}
+
+	/**
+	 * Stops the validation of the transfer which is not complete, does nothing if it is finished.
+	 */
+	void abort() {
+		if (!thread.isAlive())
+			return;
+		thread.interrupt();
+		closeQuietly();
+		join();
+	}
+
+	private void join() {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void checkError() throws IOException {
+		if (error != null)
+			throw error;
+	}
+
+	private void closeQuietly() {
+		try {
+			in.close();
+		} catch (IOException e) {
+			// ok
+		}
+	}
+
+	static class CorruptArchiveException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		CorruptArchiveException(String message) {
+			super(message);
+		}
+	}
+}
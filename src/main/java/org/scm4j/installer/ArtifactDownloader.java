@@ -0,0 +1,561 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.maven.artifact.versioning.ComparableVersion;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Downloads artifacts into the {@link BlobStore}. A broken transfer is resumed from the .part file in the downloads
+ * folder with a Range request, large artifacts are fetched in parallel chunks if the mirror accepts ranges. The file
+ * is verified against the published SHA-1 or MD5 checksum before it is moved to the store. Artifacts which content
+ * is stored already are not downloaded. Archives downloaded sequentially are also checked by {@link ArchiveValidator}
+ * as they arrive, so a corrupted transfer is restarted without waiting for its end. If a previous version of the
+ * artifact is stored and the mirror publishes a {@link DeltaPatch} from it, the artifact is rebuilt from the delta
+ * instead. A {@link Follower} gets the bytes in order while they are downloaded.
+ */
+public class ArtifactDownloader {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(ArtifactDownloader.class);
+	private static final String PART_EXTENSION = ".part";
+	private static final String CHUNKS_EXTENSION = ".chunks";
+
+	private final MirrorSelector selector;
+	private final File downloadsFolder;
+	private final BlobStore blobStore;
+	private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+	public ArtifactDownloader(MirrorSelector selector, File downloadsFolder, BlobStore blobStore) {
+		this.selector = selector;
+		this.downloadsFolder = downloadsFolder;
+		this.blobStore = blobStore;
+	}
+
+	/**
+	 * @param progress   counters to report the transfer to, may be null
+	 * @param limiter    bandwidth limit, may be null
+	 * @return verified blob of the artifact
+	 * @throws FileNotFoundException if no mirror has the artifact
+	 * @throws IOException           if the download failed after all retries or the checksum does not match
+	 */
+	public File download(String path, TransferProgress progress, BandwidthLimiter limiter) throws IOException {
+		return download(path, progress, limiter, null);
+	}
+
+	/**
+	 * @param follower gets the bytes while they are downloaded if the mirror announces the length, may be null
+	 * @see #download(String, TransferProgress, BandwidthLimiter)
+	 */
+	public File download(String path, TransferProgress progress, BandwidthLimiter limiter, Follower follower)
+			throws IOException {
+		synchronized (locks.computeIfAbsent(path, key -> new Object())) {
+			long start = System.currentTimeMillis();
+			File part = new File(downloadsFolder, path + PART_EXTENSION);
+			Checksum checksum = fetchChecksum(path);
+			boolean sha1 = checksum != null && checksum.algorithm.equals(Checksums.SHA1);
+			File stored = sha1 ? blobStore.get(checksum.value) : blobStore.getArtifact(path);
+			if (stored != null && (sha1 || checksum == null || checksum.matches(stored))) {
+				blobStore.putArtifact(path, stored.getName());
+				LOG.info(path + " is taken from blob store");
+				Metrics.getInstance().recordDownload(path, stored.length(), System.currentTimeMillis() - start, true);
+				return stored;
+			}
+			FileUtils.forceMkdir(part.getParentFile());
+			// a broken full download is resumed rather than patched
+			boolean patched = checksum != null && !part.exists() && patch(path, part, checksum, progress, limiter);
+			if (!patched) {
+				MirrorSelector.Response head = selector.fetch(path, "HEAD", Collections.emptyMap());
+				if (head.getCode() == HttpURLConnection.HTTP_NOT_FOUND)
+					throw new FileNotFoundException(path);
+				long length = parseLength(head.getHeader("Content-Length"));
+				boolean ranges = "bytes".equalsIgnoreCase(head.getHeader("Accept-Ranges"));
+				if (follower != null && length > 0)
+					follower.started(length);
+				if (ranges && length >= Settings.CHUNKED_DOWNLOAD_THRESHOLD) {
+					downloadInChunks(path, part, length, progress, limiter, follower);
+				} else {
+					discardChunks(path, part);
+					downloadSequentially(path, part, length, progress, limiter, follower);
+				}
+			}
+			if (progress != null)
+				progress.completed(path);
+			if (!patched && checksum != null && !checksum.matches(part)) {
+				FileUtils.deleteQuietly(part);
+				FileUtils.deleteQuietly(new File(part.getPath() + CHUNKS_EXTENSION));
+				throw new IOException(checksum.algorithm + " of " + path + " does not match " + checksum.value);
+			}
+			if (!patched)
+				LOG.info(path + " downloaded" + (checksum == null ? " without checksum" : " and verified"));
+			File blob = blobStore.putArtifact(path, part, sha1 ? checksum.value : Checksums.hash(part, Checksums.SHA1));
+			Metrics.getInstance().recordDownload(path, blob.length(), System.currentTimeMillis() - start, false);
+			return blob;
+		}
+	}
+
+	/**
+	 * Rebuilds the artifact from the latest previous version stored if the mirror publishes a delta from it.
+	 *
+	 * @return false if there is no previous version or delta, or the result does not match the checksum
+	 */
+	private boolean patch(String path, File part, Checksum checksum, TransferProgress progress,
+			BandwidthLimiter limiter) throws InterruptedIOException {
+		String[] previous = findPreviousVersion(path);
+		if (previous == null)
+			return false;
+		File source = blobStore.getArtifact(previous[1]);
+		if (source == null || source.length() < Settings.DELTA_MIN_SIZE)
+			return false;
+		String deltaPath = DeltaPatch.getPath(path, previous[0]);
+		File delta = new File(downloadsFolder, deltaPath + PART_EXTENSION);
+		long deltaLength;
+		try {
+			downloadSequentially(deltaPath, delta, -1, progress, limiter, null);
+			if (progress != null)
+				progress.completed(deltaPath);
+			deltaLength = delta.length();
+			DeltaPatch.apply(source, delta, part);
+		} catch (FileNotFoundException e) {
+			LOG.info("No delta of " + path + " from " + previous[0] + " published");
+			return false;
+		} catch (InterruptedIOException e) {
+			FileUtils.deleteQuietly(part);
+			throw e;
+		} catch (IOException e) {
+			LOG.warn("Can't patch " + path + " from " + previous[0] + ", downloading it: " + e.toString());
+			FileUtils.deleteQuietly(part);
+			return false;
+		} finally {
+			FileUtils.deleteQuietly(delta);
+		}
+		try {
+			if (checksum.matches(part)) {
+				LOG.info(path + " rebuilt from " + previous[0] + " with " + TransferProgress.formatBytes(deltaLength)
+						+ " delta and verified");
+				return true;
+			}
+			LOG.warn(checksum.algorithm + " of " + path + " rebuilt from " + previous[0] + " does not match "
+					+ checksum.value + ", downloading it");
+		} catch (IOException e) {
+			LOG.warn("Can't verify " + path + " rebuilt from " + previous[0] + ": " + e.toString());
+		}
+		FileUtils.deleteQuietly(part);
+		return false;
+	}
+
+	/**
+	 * @return version and path of the latest stored artifact of an older version with the same classifier and
+	 * extension, null if there is none
+	 */
+	private String[] findPreviousVersion(String path) {
+		String[] segments = path.split("/");
+		if (segments.length < 3)
+			return null;
+		String name = segments[segments.length - 1];
+		String version = segments[segments.length - 2];
+		String artifactId = segments[segments.length - 3];
+		if (!name.startsWith(artifactId + '-' + version))
+			return null;
+		String suffix = name.substring(artifactId.length() + 1 + version.length());
+		String folder = path.substring(0, path.length() - name.length() - version.length() - 1);
+		ComparableVersion target = new ComparableVersion(version);
+		ComparableVersion latest = null;
+		String[] res = null;
+		for (String stored : blobStore.listArtifacts(folder)) {
+			String rest = stored.substring(folder.length());
+			int slash = rest.indexOf('/');
+			if (slash < 0)
+				continue;
+			String storedVersion = rest.substring(0, slash);
+			if (!rest.equals(storedVersion + '/' + artifactId + '-' + storedVersion + suffix))
+				continue;
+			ComparableVersion comparable = new ComparableVersion(storedVersion);
+			if (comparable.compareTo(target) < 0 && (latest == null || comparable.compareTo(latest) > 0)) {
+				latest = comparable;
+				res = new String[] {storedVersion, stored};
+			}
+		}
+		return res;
+	}
+
+	private Checksum fetchChecksum(String path) throws IOException {
+		for (String algorithm : new String[] {Checksums.SHA1, Checksums.MD5}) {
+			String extension = algorithm.equals(Checksums.SHA1) ? ".sha1" : ".md5";
+			MirrorSelector.Response response = selector.fetch(path + extension, "GET", Collections.emptyMap());
+			if (response.getCode() == HttpURLConnection.HTTP_OK) {
+				String value = Checksums.parse(new String(response.getBody(), StandardCharsets.US_ASCII));
+				if (!value.isEmpty())
+					return new Checksum(algorithm, value);
+			}
+		}
+		LOG.warn("No checksum published for " + path);
+		return null;
+	}
+
+	private static long parseLength(String contentLength) {
+		try {
+			return contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * The part of a chunked download is preallocated to the full length, so it can't be resumed sequentially.
+	 */
+	private static void discardChunks(String path, File part) throws IOException {
+		File chunksFile = new File(part.getPath() + CHUNKS_EXTENSION);
+		if (!chunksFile.exists())
+			return;
+		LOG.info("Discarding chunked part of " + path + ", it is downloaded sequentially");
+		FileUtils.forceDelete(part);
+		FileUtils.forceDelete(chunksFile);
+	}
+
+	private void downloadSequentially(String path, File part, long length, TransferProgress progress,
+			BandwidthLimiter limiter, Follower follower) throws IOException {
+		IOException lastException = null;
+		boolean validate = ArchiveValidator.isSupported(path);
+		for (int attempt = 0; attempt <= Settings.DOWNLOAD_RETRIES; attempt++) {
+			if (attempt > 0)
+				backOff(path, attempt, lastException);
+			long offset = part.length();
+			if (length >= 0 && offset > length) {
+				FileUtils.forceDelete(part);
+				offset = 0;
+			}
+			if (length >= 0 && offset == length && offset > 0)
+				return;
+			MirrorSelector.Mirror mirror = selector.rank(true).get(0);
+			long start = System.nanoTime();
+			HttpURLConnection conn = MirrorSelector.open(mirror, path, "GET", offset > 0
+					? Collections.singletonMap("Range", "bytes=" + offset + "-") : Collections.emptyMap());
+			try {
+				int code = conn.getResponseCode();
+				if (code == HttpURLConnection.HTTP_NOT_FOUND)
+					throw new FileNotFoundException(path);
+				if (code == 416) {
+					FileUtils.forceDelete(part);
+					throw new IOException("Range " + offset + " of " + path + " is not satisfiable");
+				}
+				if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL)
+					throw new IOException("Response " + code + " from " + mirror.getUrl());
+				long latency = System.nanoTime() - start;
+				if (code == HttpURLConnection.HTTP_OK)
+					offset = 0;
+				else
+					LOG.info("Resuming " + path + " from " + offset + " at " + mirror.getUrl());
+				if (progress != null)
+					progress.resumed(path, length, offset);
+				follow(follower, part, offset);
+				// resumed transfers are verified by the checksum only
+				ArchiveValidator validator = validate && offset == 0 ? ArchiveValidator.start(path) : null;
+				long bytes;
+				try (InputStream in = conn.getInputStream();
+						OutputStream out = new FileOutputStream(part, offset > 0)) {
+					bytes = copy(in, validator == null ? out : new TeeOutputStream(out, validator), offset, path,
+							progress, limiter, follower);
+					if (validator != null && (length < 0 || part.length() == length))
+						validator.finish();
+				} finally {
+					if (validator != null)
+						validator.abort();
+				}
+				mirror.recordSuccess(latency, bytes, System.nanoTime() - start - latency);
+				Metrics.getInstance().recordTransfer(path, mirror.getUrl(), bytes);
+				if (length < 0 || part.length() == length)
+					return;
+				throw new IOException("Connection closed at " + part.length() + " of " + length);
+			} catch (FileNotFoundException e) {
+				throw e;
+			} catch (ArchiveValidator.CorruptArchiveException e) {
+				// the archive may be valid but unusual for ZipInputStream, so the next attempt relies on checksum
+				FileUtils.deleteQuietly(part);
+				mirror.recordError();
+				validate = false;
+				lastException = e;
+			} catch (IOException e) {
+				if (Thread.currentThread().isInterrupted())
+					throw e;
+				mirror.recordError();
+				lastException = e;
+			} finally {
+				conn.disconnect();
+			}
+		}
+		throw lastException;
+	}
+
+	private void downloadInChunks(String path, File part, long length, TransferProgress progress,
+			BandwidthLimiter limiter, Follower follower) throws IOException {
+		int chunks = (int) ((length + Settings.DOWNLOAD_CHUNK_SIZE - 1) / Settings.DOWNLOAD_CHUNK_SIZE);
+		File chunksFile = new File(part.getPath() + CHUNKS_EXTENSION);
+		BitSet completed = part.length() == length ? readChunks(chunksFile) : new BitSet(chunks);
+		// written before the part is preallocated, so a sequential download will not take the part as complete
+		writeChunks(chunksFile, completed);
+		AtomicLongArray positions = new AtomicLongArray(chunks);
+		for (int i = 0; i < chunks; i++)
+			positions.set(i, completed.get(i) ? chunkEnd(i, length) : i * Settings.DOWNLOAD_CHUNK_SIZE);
+		try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (channel.size() != length) {
+				channel.truncate(0);
+				channel.position(length - 1);
+				channel.write(ByteBuffer.allocate(1));
+			}
+			long alreadyDone = 0;
+			for (int i = completed.nextSetBit(0); i >= 0; i = completed.nextSetBit(i + 1))
+				alreadyDone += chunkEnd(i, length) - i * Settings.DOWNLOAD_CHUNK_SIZE;
+			if (progress != null)
+				progress.resumed(path, length, alreadyDone);
+			if (alreadyDone > 0)
+				LOG.info("Resuming " + path + ", " + completed.cardinality() + " of " + chunks + " chunks done");
+			follow(follower, channel, positions, length);
+			ExecutorService executor = Executors.newFixedThreadPool(Settings.DOWNLOAD_CHUNK_THREADS,
+					CatalogLoader.daemonThreads("chunk"));
+			try {
+				List<Future<?>> futures = new ArrayList<>();
+				for (int i = completed.nextClearBit(0); i < chunks; i = completed.nextClearBit(i + 1)) {
+					int chunk = i;
+					futures.add(executor.submit(() -> {
+						downloadChunk(path, channel, chunk, positions, length, progress, limiter, follower);
+						synchronized (completed) {
+							completed.set(chunk);
+							writeChunks(chunksFile, completed);
+						}
+						return null;
+					}));
+				}
+				for (Future<?> future : futures)
+					future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted downloading " + path);
+			} catch (ExecutionException e) {
+				throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+						: new IOException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		FileUtils.deleteQuietly(chunksFile);
+	}
+
+	private static long chunkEnd(int chunk, long length) {
+		return Math.min((chunk + 1) * Settings.DOWNLOAD_CHUNK_SIZE, length);
+	}
+
+	private void downloadChunk(String path, FileChannel channel, int chunk, AtomicLongArray positions, long length,
+			TransferProgress progress, BandwidthLimiter limiter, Follower follower) throws IOException {
+		IOException lastException = null;
+		long from = chunk * Settings.DOWNLOAD_CHUNK_SIZE;
+		long to = chunkEnd(chunk, length);
+		long position = from;
+		for (int attempt = 0; attempt <= Settings.DOWNLOAD_RETRIES; attempt++) {
+			if (attempt > 0)
+				backOff(path, attempt, lastException);
+			MirrorSelector.Mirror mirror = selector.rank(true).get(0);
+			long start = System.nanoTime();
+			HttpURLConnection conn = MirrorSelector.open(mirror, path, "GET",
+					Collections.singletonMap("Range", "bytes=" + position + "-" + (to - 1)));
+			try {
+				int code = conn.getResponseCode();
+				if (code != HttpURLConnection.HTTP_PARTIAL)
+					throw new IOException("Response " + code + " to range request from " + mirror.getUrl());
+				long latency = System.nanoTime() - start;
+				long bytes = 0;
+				try (InputStream in = conn.getInputStream()) {
+					byte[] buffer = new byte[Settings.COPY_BUFFER_SIZE];
+					int n;
+					while (position < to && (n = in.read(buffer, 0, (int) Math.min(buffer.length, to - position)))
+							!= -1) {
+						acquire(limiter, n, path);
+						ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, n);
+						while (byteBuffer.hasRemaining())
+							position += channel.write(byteBuffer, position);
+						positions.set(chunk, position);
+						follow(follower, channel, positions, length);
+						bytes += n;
+						if (progress != null)
+							progress.transferred(path, n);
+					}
+				}
+				mirror.recordSuccess(latency, bytes, System.nanoTime() - start - latency);
+				Metrics.getInstance().recordTransfer(path, mirror.getUrl(), bytes);
+				if (position == to)
+					return;
+				throw new IOException("Connection closed at " + position + " of chunk " + from + "-" + to);
+			} catch (IOException e) {
+				if (Thread.currentThread().isInterrupted())
+					throw e;
+				mirror.recordError();
+				lastException = e;
+			} finally {
+				conn.disconnect();
+			}
+		}
+		throw lastException;
+	}
+
+	private static long copy(InputStream in, OutputStream out, long offset, String path, TransferProgress progress,
+			BandwidthLimiter limiter, Follower follower) throws IOException {
+		long bytes = 0;
+		byte[] buffer = new byte[Settings.COPY_BUFFER_SIZE];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			acquire(limiter, n, path);
+			out.write(buffer, 0, n);
+			// followed after the write, so a resumed transfer never starts before the bytes followed
+			if (follower != null)
+				follower.written(offset + bytes, buffer, 0, n);
+			bytes += n;
+			if (progress != null)
+				progress.transferred(path, n);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Passes the bytes the part has before the offset and the follower has not got yet.
+	 */
+	private static void follow(Follower follower, File part, long offset) throws IOException {
+		if (follower == null || follower.getPosition() >= offset)
+			return;
+		try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+			follow(follower, channel, follower.getPosition(), offset);
+		}
+	}
+
+	/**
+	 * Passes the bytes of the chunks following each other from the position of the follower.
+	 */
+	private static void follow(Follower follower, FileChannel channel, AtomicLongArray positions, long length)
+			throws IOException {
+		if (follower == null)
+			return;
+		synchronized (follower) {
+			long position = follower.getPosition();
+			for (int chunk = (int) (position / Settings.DOWNLOAD_CHUNK_SIZE); chunk < positions.length(); chunk++) {
+				long available = positions.get(chunk);
+				if (available > position) {
+					follow(follower, channel, position, available);
+					position = available;
+				}
+				if (available < chunkEnd(chunk, length))
+					break;
+			}
+		}
+	}
+
+	private static void follow(Follower follower, FileChannel channel, long from, long to) throws IOException {
+		byte[] buffer = new byte[Settings.COPY_BUFFER_SIZE];
+		ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+		long position = from;
+		while (position < to) {
+			byteBuffer.clear().limit((int) Math.min(buffer.length, to - position));
+			int n = channel.read(byteBuffer, position);
+			if (n == -1)
+				throw new IOException("Part ended at " + position + " of " + to);
+			follower.written(position, buffer, 0, n);
+			position += n;
+		}
+	}
+
+	private static void acquire(BandwidthLimiter limiter, int bytes, String path) throws InterruptedIOException {
+		if (limiter == null)
+			return;
+		try {
+			limiter.acquire(bytes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted downloading " + path);
+		}
+	}
+
+	private static void backOff(String path, int attempt, IOException lastException) throws InterruptedIOException {
+		LOG.warn("Error downloading " + path + ", retry " + attempt + " of " + Settings.DOWNLOAD_RETRIES + ": "
+				+ lastException.toString());
+		try {
+			TimeUnit.MILLISECONDS.sleep(Math.min(500L << attempt, Settings.HTTP_TIMEOUT_MILLIS));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted downloading " + path);
+		}
+	}
+
+	private static BitSet readChunks(File chunksFile) throws IOException {
+		BitSet res = new BitSet();
+		if (!chunksFile.exists())
+			return res;
+		for (String chunk : FileUtils.readFileToString(chunksFile, StandardCharsets.UTF_8).split(","))
+			if (!chunk.trim().isEmpty())
+				res.set(Integer.parseInt(chunk.trim()));
+		return res;
+	}
+
+	private static void writeChunks(File chunksFile, BitSet completed) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = completed.nextSetBit(0); i >= 0; i = completed.nextSetBit(i + 1))
+			sb.append(sb.length() == 0 ? "" : ",").append(i);
+		FileUtils.writeStringToFile(chunksFile, sb.toString(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Gets the bytes of the artifact in order while it is downloaded. Bytes may be passed again if the transfer is
+	 * restarted, they are not verified until the download returns.
+	 */
+	public interface Follower {
+
+		/**
+		 * Called before the first bytes with the length announced by the mirror.
+		 */
+		void started(long length);
+
+		/**
+		 * @return position of the next byte expected
+		 */
+		long getPosition();
+
+		void written(long position, byte[] b, int off, int len);
+	}
+
+	private static class Checksum {
+
+		private final String algorithm;
+		private final String value;
+
+		Checksum(String algorithm, String value) {
+			this.algorithm = algorithm;
+			this.value = value;
+		}
+
+		boolean matches(File file) throws IOException {
+			return Checksums.hash(file, algorithm).equals(value);
+		}
+	}
+}
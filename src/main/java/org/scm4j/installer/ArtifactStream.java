@@ -0,0 +1,111 @@
+package org.scm4j.installer;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+/**
+ * Sends an artifact to the engine while {@link ArtifactDownloader} downloads it, so the engine does not reach its
+ * read timeout on slow links. The last byte is held back until the artifact is verified and the bytes sent are
+ * checked against it, otherwise the engine gets an incomplete response and never a complete broken artifact. Nothing
+ * is sent during the back-off of a retry, it is not longer than {@link Settings#HTTP_TIMEOUT_MILLIS}. If the mirror
+ * does not announce the length the artifact is sent after the download.
+ */
+class ArtifactStream implements ArtifactDownloader.Follower {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(ArtifactStream.class);
+
+	private final HttpExchange exchange;
+	private final MessageDigest digest = Checksums.newDigest(Checksums.SHA1);
+	private OutputStream out;
+	private long length = -1;
+	private long sent;
+	private boolean failed;
+
+	ArtifactStream(HttpExchange exchange) {
+		this.exchange = exchange;
+	}
+
+	@Override
+	public synchronized void started(long length) {
+		if (out != null || failed)
+			return;
+		try {
+			exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, length);
+			out = exchange.getResponseBody();
+			this.length = length;
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public synchronized long getPosition() {
+		return sent;
+	}
+
+	@Override
+	public synchronized void written(long position, byte[] b, int off, int len) {
+		long end = Math.min(position + len, length - 1);
+		if (out == null || failed || position > sent || end <= sent)
+			return;
+		int skip = (int) (sent - position);
+		int n = (int) (end - sent);
+		try {
+			out.write(b, off + skip, n);
+			digest.update(b, off + skip, n);
+			sent = end;
+		} catch (IOException e) {
+			// the download goes on to the blob store
+			fail(e);
+		}
+	}
+
+	/**
+	 * Sends the rest of the verified artifact or the whole of it if nothing is sent yet.
+	 *
+	 * @throws IOException if the bytes sent differ from the artifact, the engine gets an incomplete response then
+	 */
+	synchronized void finish(File blob) throws IOException {
+		if (failed)
+			throw new IOException("Engine connection is broken");
+		if (out == null) {
+			exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, blob.length());
+			try (OutputStream body = exchange.getResponseBody()) {
+				Files.copy(blob.toPath(), body);
+			}
+			return;
+		}
+		if (blob.length() != length)
+			throw new IOException("Length of " + blob + " is " + blob.length() + " instead of " + length);
+		try (InputStream in = Files.newInputStream(blob.toPath())) {
+			MessageDigest sentPart = Checksums.newDigest(Checksums.SHA1);
+			byte[] buffer = new byte[Settings.COPY_BUFFER_SIZE];
+			for (long left = sent; left > 0; ) {
+				int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+				if (n == -1)
+					throw new IOException(blob + " ended at " + (sent - left));
+				sentPart.update(buffer, 0, n);
+				left -= n;
+			}
+			if (!MessageDigest.isEqual(sentPart.digest(), digest.digest()))
+				throw new IOException("Bytes sent differ from " + blob + ", the transfer was restarted");
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+		}
+		out.close();
+	}
+
+	private void fail(IOException e) {
+		LOG.debug("Can't send artifact to engine: " + e.toString());
+		failed = true;
+	}
+}
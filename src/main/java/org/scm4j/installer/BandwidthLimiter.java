@@ -0,0 +1,48 @@
+package org.scm4j.installer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by all the transfers to keep their total rate under the limit.
+ */
+public class BandwidthLimiter {
+
+	private final long bytesPerSecond;
+	private final long capacity;
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+
+	public BandwidthLimiter(long bytesPerSecond) {
+		if (bytesPerSecond <= 0)
+			throw new IllegalArgumentException("Bandwidth limit must be positive: " + bytesPerSecond);
+		this.bytesPerSecond = bytesPerSecond;
+		capacity = Math.max(bytesPerSecond / 4, Settings.COPY_BUFFER_SIZE);
+		tokens = capacity;
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Blocks until the given amount of bytes may be transferred.
+	 */
+	public void acquire(int bytes) throws InterruptedException {
+		long waitNanos;
+		synchronized (this) {
+			refill();
+			tokens -= bytes;
+			if (tokens >= 0)
+				return;
+			waitNanos = (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+		}
+		TimeUnit.NANOSECONDS.sleep(waitNanos);
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(capacity, tokens + (now - lastRefill) * bytesPerSecond
+				/ (double) TimeUnit.SECONDS.toNanos(1));
+		lastRefill = now;
+	}
+}
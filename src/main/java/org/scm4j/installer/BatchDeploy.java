@@ -0,0 +1,257 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.FileUtils;
+import org.scm4j.deployer.api.DeploymentResult;
+import org.scm4j.deployer.engine.DeployerEngine;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Deploys the products listed in a manifest one by one in the manifest order while the next ones are downloaded, so
+ * the manifest must list dependencies before the products depending on them. The items after a failed one are
+ * skipped, the items after one which needs reboot are left for the next run.
+ */
+public class BatchDeploy {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(BatchDeploy.class);
+
+	private final DeployerEngine deployerEngine;
+	private final List<Item> items;
+
+	public BatchDeploy(DeployerEngine deployerEngine, List<Item> items) {
+		this.deployerEngine = deployerEngine;
+		this.items = items;
+	}
+
+	/**
+	 * Reads "product version" lines, empty lines and lines starting with # are ignored.
+	 */
+	public static List<Item> readManifest(File manifest) throws IOException {
+		List<Item> res = new ArrayList<>();
+		for (String line : FileUtils.readLines(manifest, "UTF-8")) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+			String[] parts = line.split("\\s+");
+			if (parts.length != 2)
+				throw new IOException("Invalid manifest line, \"product version\" expected: " + line);
+			res.add(new Item(parts[0], parts[1]));
+		}
+		return res;
+	}
+
+	public static void writeManifest(File manifest, List<Item> items) throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (Item item : items)
+			lines.add(item.getProduct() + ' ' + item.getVersion());
+		FileUtils.writeLines(manifest, "UTF-8", lines);
+	}
+
+	public List<Item> getItems() {
+		return items;
+	}
+
+	/**
+	 * Deploys the items one by one while the next ones are downloaded. Downloads run ahead of the deploy up to
+	 * {@link Settings#PIPELINE_DEPTH} items and only while the downloads folder has
+	 * {@link Settings#PIPELINE_MIN_FREE_SPACE} bytes free, the item to deploy is downloaded anyway.
+	 */
+	public void run() {
+		ExecutorService executor = Executors.newFixedThreadPool(Settings.DOWNLOAD_THREADS,
+				CatalogLoader.daemonThreads("batch-download"));
+		List<Future<?>> downloads = new ArrayList<>();
+		try {
+			Item failed = null;
+			for (int i = 0; i < items.size(); i++) {
+				Item item = items.get(i);
+				if (failed != null) {
+					item.status = Status.SKIPPED;
+					item.error = "Skipped since " + failed + " is not deployed";
+					continue;
+				}
+				scheduleDownloads(executor, downloads, i);
+				awaitDownload(item, downloads.get(i));
+				if (item.error != null) {
+					item.status = Status.FAILED;
+					failed = item;
+					continue;
+				}
+				deploy(item);
+				if (item.status == Status.NEED_REBOOT)
+					return;
+				if (item.status == Status.FAILED)
+					failed = item;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Submits downloads of the item to deploy next and of the items ahead of it within the budget.
+	 */
+	private void scheduleDownloads(ExecutorService executor, List<Future<?>> downloads, int deploying) {
+		while (downloads.size() < items.size() && downloads.size() <= deploying + Settings.PIPELINE_DEPTH) {
+			if (downloads.size() > deploying && !hasFreeSpace())
+				break;
+			Item item = items.get(downloads.size());
+			downloads.add(executor.submit(() -> Metrics.getInstance().timeDownload(deployerEngine,
+					item.getProduct(), item.getVersion())));
+		}
+	}
+
+	private static boolean hasFreeSpace() {
+		File folder = Settings.getDownloadsFolder();
+		while (folder != null && !folder.exists())
+			folder = folder.getParentFile();
+		if (folder == null || folder.getUsableSpace() >= Settings.PIPELINE_MIN_FREE_SPACE)
+			return true;
+		LOG.info("Downloads ahead are paused, " + TransferProgress.formatBytes(folder.getUsableSpace())
+				+ " free in " + folder);
+		return false;
+	}
+
+	private void awaitDownload(Item item, Future<?> download) {
+		try {
+			if (download.isDone()) {
+				download.get();
+			} else {
+				// time the deploy waits for the network
+				try (Metrics.Timer timer = Metrics.getInstance().time("download wait", item.toString())) {
+					download.get();
+					timer.done();
+				}
+			}
+		} catch (ExecutionException e) {
+			item.error = "Download failed: " + e.getCause().toString();
+			LOG.warn(item + " " + item.error);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			item.error = "Download interrupted";
+		}
+	}
+
+	private void deploy(Item item) {
+		DeploymentResult result = Metrics.getInstance().timeDeploy(deployerEngine, item.getProduct(),
+				item.getVersion());
+		LOG.info("result of deploy " + item + " is " + result.toString());
+		item.result = result;
+		item.error = result.getErrorMsg();
+		EventLog.getInstance().result(item.getProduct(), item.getVersion(), result.name(),
+				result.getErrorMsg());
+		switch (result) {
+		case OK:
+		case ALREADY_INSTALLED:
+		case NEWER_VERSION_EXISTS:
+			item.status = Status.OK;
+			break;
+		case NEED_REBOOT:
+		case REBOOT_CONTINUE:
+			item.status = Status.NEED_REBOOT;
+			break;
+		default:
+			item.status = Status.FAILED;
+		}
+	}
+
+	public boolean isRebootNeeded() {
+		return items.stream().anyMatch(item -> item.status == Status.NEED_REBOOT);
+	}
+
+	/**
+	 * @return items to run after reboot: the rest of the manifest and the item which deploy continues after reboot
+	 */
+	public List<Item> getItemsAfterReboot() {
+		List<Item> res = new ArrayList<>();
+		boolean reboot = false;
+		for (Item item : items) {
+			if (reboot) {
+				res.add(new Item(item.getProduct(), item.getVersion()));
+			} else if (item.status == Status.NEED_REBOOT) {
+				reboot = true;
+				if (item.result == DeploymentResult.REBOOT_CONTINUE)
+					res.add(new Item(item.getProduct(), item.getVersion()));
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return 0 if all items are deployed, 2 if some failed or skipped
+	 */
+	public int getExitCode() {
+		for (Item item : items) {
+			if (item.status == Status.FAILED || item.status == Status.SKIPPED)
+				return 2;
+		}
+		return 0;
+	}
+
+	/**
+	 * Appends "product version status [result] [message]" lines to the file.
+	 */
+	public void writeResults(File file) throws IOException {
+		FileUtils.writeLines(file, "UTF-8", getResultLines(), true);
+	}
+
+	public List<String> getResultLines() {
+		List<String> lines = new ArrayList<>();
+		for (Item item : items) {
+			String line = item.getProduct() + ' ' + item.getVersion() + ' ' + item.getStatus()
+					+ (item.result != null ? ' ' + item.result.toString() : "");
+			if (item.error != null && !item.error.isEmpty())
+				line += ' ' + item.error.replace('\n', ' ');
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	public enum Status {PENDING, OK, NEED_REBOOT, FAILED, SKIPPED}
+
+	public static class Item {
+
+		private final String product;
+		private final String version;
+		private Status status = Status.PENDING;
+		private DeploymentResult result;
+		private String error;
+
+		public Item(String product, String version) {
+			this.product = product;
+			this.version = version;
+		}
+
+		public String getProduct() {
+			return product;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public DeploymentResult getResult() {
+			return result;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return product + ' ' + version;
+		}
+	}
+}
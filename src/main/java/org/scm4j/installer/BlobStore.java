@@ -0,0 +1,421 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Content addressed store of the artifacts, a blob is stored once under its SHA-1 and materialized by hardlinks.
+ * The index keeps the references to the blobs: artifact paths in the repository ("repo:" prefix) and files of the
+ * engine repository linked to them ("file:" prefix) with their size and modification time. The index is shared by
+ * installer processes: it is re-read under a file lock before it is changed. Blobs not referenced by the index can be
+ * reclaimed, a blob loses its repository references when the last file linked to it is deleted. Linked files share
+ * the content, so only the engine repository, which artifacts are never modified in place, is linked.
+ */
+public class BlobStore {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(BlobStore.class);
+	private static final String INDEX_FILE_NAME = "index.properties";
+	private static final String LOCK_FILE_NAME = "index.lock";
+	private static final String REPO_PREFIX = "repo:";
+	private static final String FILE_PREFIX = "file:";
+	private static BlobStore instance;
+
+	private final File folder;
+	private final File indexFile;
+	private final Properties index = new Properties();
+	private long indexModified = -1;
+	private long indexLength = -1;
+
+	public BlobStore(File folder) {
+		this.folder = folder;
+		indexFile = new File(folder, INDEX_FILE_NAME);
+	}
+
+	public static synchronized BlobStore getInstance() {
+		if (instance == null)
+			instance = new BlobStore(Settings.getBlobsFolder());
+		return instance;
+	}
+
+	/**
+	 * Links the artifacts the engine has just stored to the blobs, failures are not fatal.
+	 */
+	public static void linkEngineRepository() {
+		File repository = Settings.getRepositoryFolder();
+		if (!repository.isDirectory())
+			return;
+		try (Metrics.Timer timer = Metrics.getInstance().time("blob link", null)) {
+			getInstance().dedupe(repository);
+			timer.done();
+		} catch (IOException | RuntimeException e) {
+			LOG.warn("Can't link engine repository to blob store: " + e.toString());
+		}
+	}
+
+	public File getFolder() {
+		return folder;
+	}
+
+	private File getBlobFile(String sha1) {
+		return new File(new File(folder, sha1.substring(0, 2)), sha1);
+	}
+
+	/**
+	 * @return the blob or null if it is not stored
+	 */
+	public File get(String sha1) {
+		File blob = getBlobFile(sha1);
+		return blob.exists() ? blob : null;
+	}
+
+	/**
+	 * @return the blob the artifact was stored as or null if the artifact is not known
+	 */
+	@SuppressWarnings("try")
+	public synchronized File getArtifact(String path) {
+		try (FileLocks.Handle lock = lockIndex(false)) {
+			loadIndex();
+			String reference = index.getProperty(REPO_PREFIX + path);
+			return reference == null ? null : get(parseSha1(reference));
+		}
+	}
+
+	/**
+	 * @return paths of the stored artifacts starting with the prefix
+	 */
+	@SuppressWarnings("try")
+	public synchronized List<String> listArtifacts(String prefix) {
+		try (FileLocks.Handle lock = lockIndex(false)) {
+			loadIndex();
+			List<String> res = new ArrayList<>();
+			for (String key : index.stringPropertyNames()) {
+				if (key.startsWith(REPO_PREFIX + prefix) && get(parseSha1(index.getProperty(key))) != null)
+					res.add(key.substring(REPO_PREFIX.length()));
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * Remembers that the artifact has the content of the stored blob.
+	 */
+	@SuppressWarnings("try")
+	public synchronized void putArtifact(String path, String sha1) throws IOException {
+		try (FileLocks.Handle lock = lockIndex(true)) {
+			loadIndex();
+			if (!sha1.equals(index.getProperty(REPO_PREFIX + path))) {
+				index.setProperty(REPO_PREFIX + path, sha1);
+				saveIndex();
+			}
+		}
+	}
+
+	/**
+	 * Moves the verified artifact into the store, it is dropped if the same content is stored already.
+	 *
+	 * @return the blob
+	 */
+	@SuppressWarnings("try")
+	public synchronized File putArtifact(String path, File file, String sha1) throws IOException {
+		try (FileLocks.Handle lock = lockIndex(true)) {
+			loadIndex();
+			File blob = getBlobFile(sha1);
+			if (blob.exists()) {
+				FileUtils.forceDelete(file);
+			} else {
+				FileUtils.forceMkdir(blob.getParentFile());
+				Files.move(file.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			index.setProperty(REPO_PREFIX + path, sha1);
+			saveIndex();
+			return blob;
+		}
+	}
+
+	/**
+	 * Creates the file as a hardlink to the blob, copies the blob if the link can't be created.
+	 */
+	@SuppressWarnings("try")
+	public synchronized void materialize(String sha1, File target) throws IOException {
+		try (FileLocks.Handle lock = lockIndex(true)) {
+			loadIndex();
+			File blob = get(sha1);
+			if (blob == null)
+				throw new IOException("Blob " + sha1 + " is not stored");
+			FileUtils.forceMkdir(target.getParentFile());
+			File tmp = new File(target.getPath() + ".tmp");
+			FileUtils.deleteQuietly(tmp);
+			try {
+				Files.createLink(tmp.toPath(), blob.toPath());
+			} catch (IOException | UnsupportedOperationException e) {
+				LOG.debug("Can't link " + target + ", copying: " + e.toString());
+				Files.copy(blob.toPath(), tmp.toPath());
+			}
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			putFileReference(target, sha1);
+			saveIndex();
+		}
+	}
+
+	/**
+	 * Replaces the artifact files of the engine repository folder which content is stored already with hardlinks to
+	 * the blobs and stores the rest. Files known by the index with the same size and modification time are not
+	 * hashed again.
+	 *
+	 * @return bytes saved
+	 */
+	@SuppressWarnings("try")
+	public synchronized long dedupe(File root) throws IOException {
+		long saved = 0;
+		try (FileLocks.Handle lock = lockIndex(true)) {
+			loadIndex();
+			for (File file : FileUtils.listFiles(root, Settings.BLOB_EXTENSIONS, true)) {
+				if (file.toPath().startsWith(folder.toPath()) || file.length() < Settings.BLOB_MIN_SIZE)
+					continue;
+				String reference = index.getProperty(FILE_PREFIX + file.getAbsolutePath());
+				if (reference != null && reference.equals(toReference(parseSha1(reference), file)))
+					continue;
+				String sha1 = Checksums.hash(file, Checksums.SHA1);
+				File blob = getBlobFile(sha1);
+				try {
+					if (!blob.exists()) {
+						FileUtils.forceMkdir(blob.getParentFile());
+						Files.createLink(blob.toPath(), file.toPath());
+					} else if (!Files.isSameFile(blob.toPath(), file.toPath())) {
+						File tmp = new File(file.getPath() + ".tmp");
+						FileUtils.deleteQuietly(tmp);
+						Files.createLink(tmp.toPath(), blob.toPath());
+						Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+								StandardCopyOption.ATOMIC_MOVE);
+						saved += blob.length();
+						LOG.debug(file + " linked to blob " + sha1);
+					}
+				} catch (IOException | UnsupportedOperationException e) {
+					LOG.warn("Can't link " + file + " to blob " + sha1 + ": " + e.toString());
+					FileUtils.deleteQuietly(new File(file.getPath() + ".tmp"));
+					continue;
+				}
+				putFileReference(file, sha1);
+			}
+			saveIndex();
+		}
+		LOG.info("Deduplicated " + root + ", " + TransferProgress.formatBytes(saved) + " saved");
+		return saved;
+	}
+
+	/**
+	 * Drops references to the files which are deleted or changed. Repository references to a blob are dropped with
+	 * the last file reference, the artifact is removed from the engine repository then. Blobs which files were not
+	 * linked yet keep their repository references.
+	 */
+	private static void dropStaleReferences(Properties index) {
+		Set<String> unlinked = new HashSet<>();
+		for (Iterator<Map.Entry<Object, Object>> it = index.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Object, Object> entry = it.next();
+			String key = (String) entry.getKey();
+			if (!key.startsWith(FILE_PREFIX))
+				continue;
+			String reference = (String) entry.getValue();
+			File file = new File(key.substring(FILE_PREFIX.length()));
+			if (!file.exists() || !reference.equals(toReference(parseSha1(reference), file))) {
+				unlinked.add(parseSha1(reference));
+				it.remove();
+			}
+		}
+		unlinked.removeAll(getReferenced(index, FILE_PREFIX));
+		index.values().removeIf(reference -> unlinked.contains(parseSha1((String) reference)));
+	}
+
+	private static Set<String> getReferenced(Properties index, String prefix) {
+		Set<String> res = new HashSet<>();
+		for (Map.Entry<Object, Object> entry : index.entrySet()) {
+			if (prefix == null || ((String) entry.getKey()).startsWith(prefix))
+				res.add(parseSha1((String) entry.getValue()));
+		}
+		return res;
+	}
+
+	@SuppressWarnings("try")
+	public synchronized Report report() throws IOException {
+		Properties current = new Properties();
+		try (FileLocks.Handle lock = lockIndex(false)) {
+			loadIndex();
+			current.putAll(index);
+		}
+		dropStaleReferences(current);
+		Report report = new Report();
+		Map<String, Integer> fileReferences = new HashMap<>();
+		for (Map.Entry<Object, Object> entry : current.entrySet()) {
+			if (((String) entry.getKey()).startsWith(FILE_PREFIX))
+				fileReferences.merge(parseSha1((String) entry.getValue()), 1, Integer::sum);
+		}
+		Set<String> referenced = getReferenced(current, null);
+		for (File blob : listBlobs()) {
+			long size = blob.length();
+			int references = fileReferences.getOrDefault(blob.getName(), 0);
+			report.blobs++;
+			report.bytes += size;
+			report.references += references;
+			if (!referenced.contains(blob.getName())) {
+				report.reclaimableBlobs++;
+				report.reclaimableBytes += size;
+			} else if (references > 0) {
+				report.savedBytes += (references - 1) * size;
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * Deletes the blobs not referenced by the index.
+	 *
+	 * @return bytes reclaimed
+	 */
+	@SuppressWarnings("try")
+	public synchronized long gc() throws IOException {
+		long reclaimed = 0;
+		try (FileLocks.Handle lock = lockIndex(true)) {
+			loadIndex();
+			dropStaleReferences(index);
+			Set<String> referenced = getReferenced(index, null);
+			for (File blob : listBlobs()) {
+				if (referenced.contains(blob.getName()))
+					continue;
+				reclaimed += blob.length();
+				FileUtils.forceDelete(blob);
+			}
+			saveIndex();
+		}
+		LOG.info("Blob store gc reclaimed " + TransferProgress.formatBytes(reclaimed));
+		return reclaimed;
+	}
+
+	private Set<File> listBlobs() {
+		Set<File> res = new HashSet<>();
+		File[] prefixes = folder.listFiles(File::isDirectory);
+		if (prefixes == null)
+			return res;
+		for (File prefix : prefixes) {
+			File[] blobs = prefix.listFiles(file -> file.isFile() && file.getName().length() == 40
+					&& FilenameUtils.getExtension(file.getName()).isEmpty());
+			if (blobs != null)
+				for (File blob : blobs)
+					res.add(blob);
+		}
+		return res;
+	}
+
+	private void putFileReference(File file, String sha1) {
+		index.setProperty(FILE_PREFIX + file.getAbsolutePath(), toReference(sha1, file));
+	}
+
+	private static String toReference(String sha1, File file) {
+		return sha1 + ',' + file.length() + ',' + file.lastModified();
+	}
+
+	private static String parseSha1(String reference) {
+		int comma = reference.indexOf(',');
+		return comma < 0 ? reference : reference.substring(0, comma);
+	}
+
+	/**
+	 * @param exclusive true to change the index, false to read it
+	 */
+	private FileLocks.Handle lockIndex(boolean exclusive) {
+		return FileLocks.lock(new File(folder, LOCK_FILE_NAME), exclusive);
+	}
+
+	/**
+	 * Re-reads the index if another process changed it, the index lock is held by the caller.
+	 */
+	private void loadIndex() {
+		long modified = indexFile.lastModified();
+		long length = indexFile.length();
+		if (modified == indexModified && length == indexLength)
+			return;
+		index.clear();
+		if (indexFile.exists()) {
+			try (InputStream in = Files.newInputStream(indexFile.toPath())) {
+				index.load(in);
+			} catch (IOException e) {
+				LOG.warn("Can't read blob index " + indexFile + ", references are lost: " + e.toString());
+			}
+		}
+		indexModified = modified;
+		indexLength = length;
+	}
+
+	private void saveIndex() throws IOException {
+		FileUtils.forceMkdir(folder);
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tmpFile.toPath())) {
+			index.store(out, null);
+		}
+		Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		indexModified = indexFile.lastModified();
+		indexLength = indexFile.length();
+	}
+
+	public static class Report {
+
+		private int blobs;
+		private long bytes;
+		private int references;
+		private int reclaimableBlobs;
+		private long reclaimableBytes;
+		private long savedBytes;
+
+		public int getBlobs() {
+			return blobs;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public int getReferences() {
+			return references;
+		}
+
+		public int getReclaimableBlobs() {
+			return reclaimableBlobs;
+		}
+
+		public long getReclaimableBytes() {
+			return reclaimableBytes;
+		}
+
+		/**
+		 * @return bytes which would be taken by the linked files if they were separate copies
+		 */
+		public long getSavedBytes() {
+			return savedBytes;
+		}
+
+		@Override
+		public String toString() {
+			return blobs + " blobs, " + TransferProgress.formatBytes(bytes) + ", " + references
+					+ " file references, " + TransferProgress.formatBytes(savedBytes) + " saved by links, "
+					+ reclaimableBlobs + " unreferenced blobs, " + TransferProgress.formatBytes(reclaimableBytes)
+					+ " reclaimable";
+		}
+	}
+}
@@ -6,7 +6,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.io.FileUtils;
-import org.eclipse.swt.widgets.Shell;
 import org.scm4j.deployer.api.DeploymentResult;
 import org.scm4j.deployer.engine.DeployerEngine;
 import org.slf4j.Logger;
@@ -14,6 +13,12 @@ import org.slf4j.Logger;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class CLI {
 
@@ -22,27 +27,39 @@ public class CLI {
 	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(CLI.class);
 	private static final String COMMAND_DOWNLOAD = "download";
 	private static final String COMMAND_DEPLOY = "deploy";
-	private static final String AFTER_REBOOT_PROPERTY_NAME = "installer.restarted";
+	private static final String COMMAND_BATCH = "batch";
+	private static final String COMMAND_PREFETCH = "prefetch";
+	private static final String COMMAND_STORE = "store";
+	private static final List<String> STORE_ACTIONS = Arrays.asList("report", "dedupe", "gc");
+	private static final String COMMAND_AGENT = "agent";
+	private static final String COMMAND_EXPORT = "export";
+	private static final String COMMAND_IMPORT = "import";
+	private static final List<String> AGENT_ACTIONS = Arrays.asList("start", Agent.COMMAND_STOP,
+			Agent.COMMAND_STATUS);
+	static final String AFTER_REBOOT_PROPERTY_NAME = "installer.restarted";
+	static final String LATEST_VERSION = "latest";
 
 	public static void main(String[] args) {
 
 		String command = null;
 		String product = null;
 		String version = null;
+		List<String> filters = new ArrayList<>();
 
 		Options options = new Options()
 				.addOption("r", "result-folder", true, "Store stdout, stderr and exitcode"
 						+ " to specified folder")
 				.addOption("i", "silent", false, "Sets the silent operation mode, "
 						+ "you must use option -r <folder> with this mode")
-				.addOption("a", "after-reboot", false, "Sets the after reboot mode");
+				.addOption("a", "after-reboot", false, "Sets the after reboot mode")
+				.addOption("w", "workers", true, "Number of parallel downloads for prefetch")
+				.addOption("b", "bandwidth", true, "Limits total download rate to specified KB/s");
 
 		CommandLineParser parser = new DefaultParser();
 		CommandLine cmdLine = null;
 		String errorMessage = null;
 		String outputFolderName = null;
 		File exitcodeFile = null;
-		Shell shell = new Shell();
 		try {
 			cmdLine = parser.parse(options, args);
 			String[] argsWoOptions = cmdLine.getArgs();
@@ -53,9 +70,50 @@ public class CLI {
 				command = argsWoOptions[0].toLowerCase();
 				product = argsWoOptions.length > 1 ? argsWoOptions[1] : "";
 				version = argsWoOptions.length > 2 ? argsWoOptions[2] : "";
+			} else if (argsWoOptions[0].equalsIgnoreCase(COMMAND_BATCH)) {
+				command = COMMAND_BATCH;
+				product = argsWoOptions.length > 1 ? argsWoOptions[1] : "";
+				version = "";
+				if (!cmdLine.hasOption("i"))
+					errorMessage = "Batch command can be used in silent mode only";
+			} else if (argsWoOptions[0].equalsIgnoreCase(COMMAND_PREFETCH)) {
+				command = COMMAND_PREFETCH;
+				product = "";
+				version = "";
+				filters.addAll(Arrays.asList(argsWoOptions).subList(1, argsWoOptions.length));
+			} else if (argsWoOptions[0].equalsIgnoreCase(COMMAND_STORE)) {
+				command = COMMAND_STORE;
+				product = argsWoOptions.length > 1 ? argsWoOptions[1].toLowerCase() : STORE_ACTIONS.get(0);
+				version = "";
+				if (!STORE_ACTIONS.contains(product))
+					errorMessage = "Unknown store action: " + product + ", expected one of " + STORE_ACTIONS;
+			} else if (argsWoOptions[0].equalsIgnoreCase(COMMAND_AGENT)) {
+				command = COMMAND_AGENT;
+				product = argsWoOptions.length > 1 ? argsWoOptions[1].toLowerCase() : AGENT_ACTIONS.get(0);
+				version = "";
+				if (!AGENT_ACTIONS.contains(product))
+					errorMessage = "Unknown agent action: " + product + ", expected one of " + AGENT_ACTIONS;
+			} else if (argsWoOptions[0].equalsIgnoreCase(COMMAND_EXPORT)) {
+				command = COMMAND_EXPORT;
+				product = argsWoOptions.length > 1 ? argsWoOptions[1] : "";
+				version = argsWoOptions.length > 2 ? argsWoOptions[2] : "";
+				if (product.isEmpty() || version.isEmpty())
+					errorMessage = "Export command needs bundle file and manifest";
+			} else if (argsWoOptions[0].equalsIgnoreCase(COMMAND_IMPORT)) {
+				command = COMMAND_IMPORT;
+				product = argsWoOptions.length > 1 ? argsWoOptions[1] : "";
+				version = "";
+				if (product.isEmpty())
+					errorMessage = "Import command needs bundle file";
 			} else {
 				errorMessage = "Unknown command: " + argsWoOptions[0];
 			}
+			if (errorMessage == null && cmdLine.hasOption("b"))
+				parseBandwidthLimit(cmdLine.getOptionValue("b"));
+			if (errorMessage == null && cmdLine.hasOption("w"))
+				parseWorkers(cmdLine.getOptionValue("w"));
+		} catch (IllegalArgumentException e) {
+			errorMessage = e.getMessage();
 		} catch (ParseException e) {
 			errorMessage = e.getMessage();
 		}
@@ -75,97 +133,430 @@ public class CLI {
 				PrintStream outStream = new PrintStream(stdOut);
 				System.setErr(errStream);
 				System.setOut(outStream);
+				// the log of the run continued after reboot is appended
+				EventLog.getInstance().open(new File(outputFolder, Settings.EVENTS_FILE_NAME),
+						cmdLine.hasOption("a"));
 			} catch (Exception e) {
 				errorMessage = "Can't create folder for logs in " + outputFolderName;
 			}
 		} else if (cmdLine.hasOption("i")) {
 			errorMessage = "Can't use silent mode without -r <folder>";
 		}
+		boolean silent = cmdLine.hasOption("i");
+		// SWT is not loaded in silent mode, so it works without display
+		ErrorReporter reporter = silent || cmdLine.hasOption("r") ? new ConsoleErrorReporter()
+				: new SwtErrorReporter();
 		if (errorMessage != null) {
 			LOG.warn(errorMessage);
-			if (cmdLine.hasOption("r"))
-				System.err.println(errorMessage);
-			else
-				Common.showError(shell, errorMessage, null);
+			reporter.error(errorMessage, null);
 			writeExitCodeToFileOrJustExit(1, exitcodeFile);
 		}
 
-		if (cmdLine.hasOption("i"))
+		if (silent)
 			System.setProperty(SILENT_MODE_PROPERTY_NAME, Boolean.toString(true));
 
 		if (cmdLine.hasOption("a"))
 			System.setProperty(AFTER_REBOOT_PROPERTY_NAME, Boolean.toString(true));
 
+		if (silent && (command.equals(COMMAND_DOWNLOAD) || command.equals(COMMAND_DEPLOY)))
+			forwardToAgent(command, product, version, cmdLine.getOptionValue("b", ""), cmdLine.hasOption("a"),
+					outputFolderName, exitcodeFile);
+
+		// progress windows are shown unless silent, even if errors go to the result folder
+		SwtErrorReporter gui = silent ? null : reporter instanceof SwtErrorReporter ? (SwtErrorReporter) reporter
+				: new SwtErrorReporter();
 		try {
-			DeployerEngine deployerEngine = new DeployerEngine(Settings.getPortableFolder(),
-					Settings.getWorkingFolder(), Settings.PRODUCT_LIST_URL_1, Settings.PRODUCT_LIST_URL_2);
+			if (command.equals(COMMAND_AGENT))
+				agent(product, exitcodeFile);
+			if (command.equals(COMMAND_STORE))
+				store(product, reporter, exitcodeFile);
+			if (command.equals(COMMAND_IMPORT))
+				importBundle(new File(product), reporter, exitcodeFile);
+			DeployerEngine deployerEngine = Platform.createDeployerEngine();
+			if (cmdLine.hasOption("b")) {
+				long bytesPerSecond = parseBandwidthLimit(cmdLine.getOptionValue("b"));
+				MirrorRelay.getInstance().setBandwidthLimiter(new BandwidthLimiter(bytesPerSecond));
+			}
+			if (command.equals(COMMAND_EXPORT))
+				export(new File(product), new File(version), reporter, exitcodeFile);
+			if (version.equalsIgnoreCase(LATEST_VERSION))
+				version = resolveLatestVersion(deployerEngine, product);
+			if (silent)
+				writeProgressToFile(new File(outputFolderName, "progress.txt"));
 			if (command.equalsIgnoreCase(COMMAND_DOWNLOAD)) {
-				if (!cmdLine.hasOption("i")) {
-					Common.downloadWithProgress(shell, deployerEngine, product, version);
+				if (!silent) {
+					Common.downloadWithProgress(gui.getShell(), deployerEngine, product, version);
 				} else {
-					deployerEngine.download(product, version);
+					Metrics.getInstance().timeDownload(deployerEngine, product, version);
 				}
 				writeExitCodeToFileOrJustExit(0, exitcodeFile);
 			}
+			if (command.equalsIgnoreCase(COMMAND_PREFETCH)) {
+				int workers = cmdLine.hasOption("w") ? parseWorkers(cmdLine.getOptionValue("w"))
+						: Settings.DOWNLOAD_THREADS;
+				prefetch(deployerEngine, filters, workers, gui, outputFolderName, exitcodeFile);
+			}
+			if (command.equalsIgnoreCase(COMMAND_BATCH)) {
+				Platform.copyJreIfNotExists();
+				batch(deployerEngine, new File(product), outputFolderName, exitcodeFile,
+						cmdLine.hasOption("a"));
+			}
 			if (command.equalsIgnoreCase(COMMAND_DEPLOY)) {
-				Common.copyJreIfNotExists();
-				if (!cmdLine.hasOption("i")) {
+				Platform.copyJreIfNotExists();
+				if (!silent) {
 					Installer installer = new Installer();
-					installer.deployWithProgress(shell, deployerEngine, product, version);
+					installer.deployWithProgress(gui.getShell(), deployerEngine, product, version);
 				} else {
-					DeploymentResult result = deployerEngine.deploy(product, version);
+					DeploymentResult result = Metrics.getInstance().timeDeploy(deployerEngine, product, version);
 					LOG.info("result of deploy " + product + ' ' + version + " is " + result.toString());
-					int exitcode;
-					String resultMsg = result.getErrorMsg();
-					if (resultMsg == null) {
-						resultMsg = "";
-					}
-					switch (result) {
-					case OK:
-					case ALREADY_INSTALLED:
-					case NEWER_VERSION_EXISTS:
-						LOG.warn(resultMsg);
-						writeExitCodeToFileOrJustExit(0, exitcodeFile);
-						break;
-					case REBOOT_CONTINUE:
-						LOG.warn(resultMsg);
-						exitcode = Common.createBatAndTaskForWindowsTaskScheduler(product, version, outputFolderName);
-						if (exitcode != 0)
-							writeExitCodeToFileOrJustExit(1, exitcodeFile);
-						else
-							Common.restartPc();
-						break;
-					case NEED_REBOOT:
-						LOG.warn(resultMsg);
-						exitcode = Common.createBatAndTaskForWindowsTaskScheduler("@echo 0 > \""
-								+ exitcodeFile.getPath() + '\"');
-						if (exitcode != 0)
-							writeExitCodeToFileOrJustExit(1, exitcodeFile);
-						else
-							Common.restartPc();
-						break;
-					case FAILED:
-					case INCOMPATIBLE_API_VERSION:
-						LOG.warn(resultMsg);
-						writeExitCodeToFileOrJustExit(2, exitcodeFile);
-						break;
-					default:
-						throw new RuntimeException("Invalid result!");
-					}
+					exitWithDeploymentResult(result, result.getErrorMsg(), product, version, outputFolderName,
+							exitcodeFile);
 				}
 			}
 		} catch (Exception e) {
-			if (cmdLine.hasOption("r"))
-				System.err.println(e.getMessage());
+			reporter.error(null, e);
+			LOG.warn(e.toString());
+			writeExitCodeToFileOrJustExit(3, exitcodeFile);
+		}
+	}
+
+	/**
+	 * Writes the exit code of the deploy result or schedules the rest of the deploy and restarts the PC.
+	 */
+	private static void exitWithDeploymentResult(DeploymentResult result, String resultMsg, String product,
+	                                             String version, String outputFolderName, File exitcodeFile)
+			throws Exception {
+		int exitcode;
+		if (resultMsg == null) {
+			resultMsg = "";
+		}
+		EventLog.getInstance().result(product, version, result.name(), resultMsg);
+		switch (result) {
+		case OK:
+		case ALREADY_INSTALLED:
+		case NEWER_VERSION_EXISTS:
+			LOG.warn(resultMsg);
+			writeExitCodeToFileOrJustExit(0, exitcodeFile);
+			break;
+		case REBOOT_CONTINUE:
+			LOG.warn(resultMsg);
+			exitcode = Platform.createBatAndTaskForWindowsTaskScheduler(product, version, outputFolderName);
+			if (exitcode != 0)
+				writeExitCodeToFileOrJustExit(1, exitcodeFile);
+			else
+				Platform.restartPc();
+			break;
+		case NEED_REBOOT:
+			LOG.warn(resultMsg);
+			exitcode = Platform.createBatAndTaskForWindowsTaskScheduler("@echo 0 > \""
+					+ exitcodeFile.getPath() + '\"');
+			if (exitcode != 0)
+				writeExitCodeToFileOrJustExit(1, exitcodeFile);
 			else
-				Common.showError(shell, e.toString(), e);
+				Platform.restartPc();
+			break;
+		case FAILED:
+		case INCOMPATIBLE_API_VERSION:
+			LOG.warn(resultMsg);
+			writeExitCodeToFileOrJustExit(2, exitcodeFile);
+			break;
+		default:
+			throw new RuntimeException("Invalid result!");
+		}
+	}
+
+	/**
+	 * Runs the silent download or deploy in the agent if it is running, returns to run it in-process otherwise. The
+	 * silent and after reboot modes are passed with the command, the agent runs the engine in them.
+	 */
+	private static void forwardToAgent(String command, String product, String version, String bandwidth,
+	                                   boolean afterReboot, String outputFolderName, File exitcodeFile) {
+		// not timed by metrics, the agent writes its own
+		EventLog events = EventLog.getInstance();
+		String phase = "agent " + command;
+		String detail = product + ' ' + version;
+		long start = System.currentTimeMillis();
+		events.phaseStarted(phase, detail);
+		String[] answer;
+		try {
+			answer = Agent.send(command, product, version,
+					new File(outputFolderName, "progress.txt").getAbsolutePath(), bandwidth, Boolean.toString(true),
+					Boolean.toString(afterReboot));
+		} catch (Exception e) {
+			events.phaseEnded(phase, detail, System.currentTimeMillis() - start, Metrics.RESULT_ERROR);
+			System.err.println(e.getMessage());
+			LOG.warn(e.toString());
+			writeExitCodeToFileOrJustExit(3, exitcodeFile);
+			return;
+		}
+		events.phaseEnded(phase, detail, System.currentTimeMillis() - start,
+				answer == null ? "not running" : Metrics.RESULT_OK);
+		if (answer == null)
+			return;
+		LOG.info(command + ' ' + product + ' ' + version + " is done by agent");
+		try {
+			if (command.equals(COMMAND_DOWNLOAD))
+				writeExitCodeToFileOrJustExit(0, exitcodeFile);
+			exitWithDeploymentResult(DeploymentResult.valueOf(answer[0]), answer[2], product, answer[1],
+					outputFolderName, exitcodeFile);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
 			LOG.warn(e.toString());
 			writeExitCodeToFileOrJustExit(3, exitcodeFile);
 		}
 	}
 
+	/**
+	 * Runs the agent until it is stopped or sends the action to the running agent.
+	 */
+	private static void agent(String action, File exitcodeFile) throws IOException {
+		if (action.equals("start")) {
+			if (Agent.send(Agent.COMMAND_STATUS) != null) {
+				System.out.println("Agent is running already");
+				writeExitCodeToFileOrJustExit(1, exitcodeFile);
+			}
+			new Agent(Platform.createDeployerEngine()).run();
+			writeExitCodeToFileOrJustExit(0, exitcodeFile);
+		}
+		String[] answer = Agent.send(action);
+		if (answer == null) {
+			System.out.println("Agent is not running");
+			writeExitCodeToFileOrJustExit(1, exitcodeFile);
+		}
+		System.out.println(String.join(" ", answer));
+		writeExitCodeToFileOrJustExit(0, exitcodeFile);
+	}
+
+	/**
+	 * Downloads the latest versions of the products matching the filters. Results are written to results.txt of the
+	 * output folder if any.
+	 *
+	 * @param gui reporter to show progress and the result in, null for silent mode
+	 */
+	private static void prefetch(DeployerEngine deployerEngine, List<String> filters, int workers,
+	                             SwtErrorReporter gui, String outputFolderName, File exitcodeFile) throws Exception {
+		Prefetch prefetch = new Prefetch(deployerEngine, workers);
+		Runnable runnable = () -> {
+			try {
+				prefetch.run(loadCatalog(deployerEngine), filters);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		};
+		if (gui == null) {
+			runnable.run();
+		} else {
+			Progress progress = new Progress(gui.getShell(), "Prefetching", runnable, new TransferProgress());
+			if (Common.checkError(progress, gui.getShell(), "Error prefetching products"))
+				writeExitCodeToFileOrJustExit(3, exitcodeFile);
+			if (prefetch.getExitCode() == 0)
+				gui.info("All products are downloaded");
+			else
+				gui.warn("Some products are not downloaded, see log for details");
+		}
+		if (outputFolderName != null)
+			prefetch.writeResults(new File(outputFolderName, "results.txt"));
+		writeExitCodeToFileOrJustExit(prefetch.getExitCode(), exitcodeFile);
+	}
+
+	/**
+	 * Reports the blob store, links duplicate artifacts of the engine repository to it or also deletes the blobs no
+	 * longer referenced.
+	 */
+	private static void store(String action, ErrorReporter reporter, File exitcodeFile) throws IOException {
+		BlobStore blobStore = BlobStore.getInstance();
+		StringBuilder sb = new StringBuilder();
+		if (!action.equals("report") && Settings.getRepositoryFolder().isDirectory())
+			sb.append(TransferProgress.formatBytes(blobStore.dedupe(Settings.getRepositoryFolder())))
+					.append(" saved by linking duplicates\n");
+		if (action.equals("gc"))
+			sb.append(TransferProgress.formatBytes(blobStore.gc())).append(" reclaimed\n");
+		sb.append(blobStore.report());
+		LOG.info(sb.toString());
+		reporter.info(sb.toString());
+		writeExitCodeToFileOrJustExit(0, exitcodeFile);
+	}
+
+	/**
+	 * Writes the offline bundle of the manifest products, latest versions are resolved before export.
+	 */
+	private static void export(File bundle, File manifest, ErrorReporter reporter, File exitcodeFile)
+			throws Exception {
+		OfflineBundle.export(BatchDeploy.readManifest(manifest), bundle);
+		String message = "Offline bundle of " + manifest + " is written to " + bundle + ", "
+				+ TransferProgress.formatBytes(bundle.length());
+		LOG.info(message);
+		reporter.info(message);
+		writeExitCodeToFileOrJustExit(0, exitcodeFile);
+	}
+
+	/**
+	 * Imports the offline bundle, the products exported are deployed then by batch command without network.
+	 */
+	private static void importBundle(File bundle, ErrorReporter reporter, File exitcodeFile) throws IOException {
+		File manifest = OfflineBundle.importBundle(bundle);
+		String message = bundle + " is imported, deploy its products by " + COMMAND_BATCH + " \"" + manifest
+				+ "\" -i -r <folder>";
+		LOG.info(message);
+		reporter.info(message);
+		writeExitCodeToFileOrJustExit(0, exitcodeFile);
+	}
+
+	/**
+	 * @param kilobytesPerSecond value of the bandwidth option
+	 * @return limit in bytes per second
+	 * @throws IllegalArgumentException if the value is not a positive number
+	 */
+	static long parseBandwidthLimit(String kilobytesPerSecond) {
+		long limit;
+		try {
+			limit = Long.parseLong(kilobytesPerSecond.trim());
+		} catch (NumberFormatException e) {
+			limit = 0;
+		}
+		if (limit <= 0 || limit > Long.MAX_VALUE / 1024)
+			throw new IllegalArgumentException("Bandwidth limit must be a positive number of KB/s: "
+					+ kilobytesPerSecond);
+		return limit * 1024;
+	}
+
+	/**
+	 * @param workers value of the workers option
+	 * @return number of parallel downloads
+	 * @throws IllegalArgumentException if the value is not a positive number
+	 */
+	static int parseWorkers(String workers) {
+		int res;
+		try {
+			res = Integer.parseInt(workers.trim());
+		} catch (NumberFormatException e) {
+			res = 0;
+		}
+		if (res <= 0)
+			throw new IllegalArgumentException("Number of workers must be a positive number: " + workers);
+		return res;
+	}
+
+	/**
+	 * @return fresh catalog snapshot or refreshed catalog
+	 */
+	static Catalog loadCatalog(DeployerEngine deployerEngine) throws InterruptedException {
+		CatalogCache catalogCache = new CatalogCache();
+		Catalog snapshot = catalogCache.load();
+		if (snapshot != null && CatalogCache.isFresh(snapshot))
+			return snapshot;
+		Catalog catalog = new CatalogLoader(deployerEngine).refresh();
+		if (snapshot != null) {
+			catalog.fillMissingVersions(snapshot);
+			catalog.getValidators().putAll(snapshot.getValidators());
+		}
+		catalogCache.save(catalog);
+		return catalog;
+	}
+
+	/**
+	 * Runs the manifest and writes per item results to results.txt of the output folder. If reboot is needed the
+	 * rest of the manifest is saved and scheduled to run after reboot.
+	 */
+	private static void batch(DeployerEngine deployerEngine, File manifest, String outputFolderName,
+	                          File exitcodeFile, boolean afterReboot) throws Exception {
+		List<BatchDeploy.Item> items = new ArrayList<>();
+		for (BatchDeploy.Item item : BatchDeploy.readManifest(manifest)) {
+			String itemVersion = item.getVersion();
+			if (itemVersion.equalsIgnoreCase(LATEST_VERSION))
+				itemVersion = resolveLatestVersion(deployerEngine, item.getProduct());
+			items.add(new BatchDeploy.Item(item.getProduct(), itemVersion));
+		}
+		BatchDeploy batchDeploy = new BatchDeploy(deployerEngine, items);
+		batchDeploy.run();
+		File resultsFile = new File(outputFolderName, "results.txt");
+		if (!afterReboot)
+			resultsFile.delete();
+		batchDeploy.writeResults(resultsFile);
+		if (!batchDeploy.isRebootNeeded())
+			writeExitCodeToFileOrJustExit(batchDeploy.getExitCode(), exitcodeFile);
+		List<BatchDeploy.Item> itemsAfterReboot = batchDeploy.getItemsAfterReboot();
+		int exitcode;
+		if (itemsAfterReboot.isEmpty()) {
+			exitcode = Platform.createBatAndTaskForWindowsTaskScheduler("@echo 0 > \""
+					+ exitcodeFile.getPath() + '\"');
+		} else {
+			File manifestAfterReboot = new File(outputFolderName, "batch-after-reboot.txt");
+			BatchDeploy.writeManifest(manifestAfterReboot, itemsAfterReboot);
+			exitcode = Platform.createBatAndTaskForWindowsTaskScheduler("start cmd /c \""
+					+ Settings.getLaunchCommand() + ' ' + COMMAND_BATCH + " \"" + manifestAfterReboot.getPath()
+					+ "\" -a -i -r \"" + outputFolderName + "\"\"");
+		}
+		if (exitcode != 0)
+			writeExitCodeToFileOrJustExit(1, exitcodeFile);
+		else
+			Platform.restartPc();
+	}
+
+	/**
+	 * Takes the latest version from the catalog snapshot if it is fresh, asks the repository otherwise.
+	 */
+	static String resolveLatestVersion(DeployerEngine deployerEngine, String product) {
+		Catalog catalog = new CatalogCache().load();
+		if (catalog != null && CatalogCache.isFresh(catalog) && catalog.hasVersions(product)) {
+			LOG.info("Latest version of " + product + " is taken from catalog snapshot revision "
+					+ catalog.getRevision());
+		} else {
+			catalog = new Catalog();
+			catalog.putVersions(product, Metrics.getInstance().time("version listing", product,
+					() -> deployerEngine.refreshProductVersions(product)));
+		}
+		String latestVersion = catalog.getLatestVersion(product);
+		if (latestVersion == null)
+			throw new RuntimeException("No released versions of " + product + " found");
+		LOG.info("Latest version of " + product + " is " + latestVersion);
+		return latestVersion;
+	}
+
+	/**
+	 * Writes download progress to the file and to the event log every second and once more on exit.
+	 */
+	private static void writeProgressToFile(File progressFile) {
+		TransferProgress transferProgress = new TransferProgress();
+		MirrorRelay.getInstance().setTransferProgress(transferProgress);
+		Runnable writer = () -> {
+			EventLog.getInstance().progress(transferProgress);
+			try {
+				transferProgress.writeTo(progressFile);
+			} catch (IOException e) {
+				LOG.warn("Can't write progress to " + progressFile + ": " + e.toString());
+			}
+		};
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+				CatalogLoader.daemonThreads("progress-writer"));
+		executor.scheduleWithFixedDelay(writer, 1, 1, TimeUnit.SECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			executor.shutdownNow();
+			writer.run();
+		}));
+	}
+
+	/**
+	 * Writes timings of this run to the result folder unless nothing was timed, e.g. the command was done by agent
+	 * which writes its own timings.
+	 */
+	static void writeMetrics(File outputFolder) {
+		Metrics metrics = Metrics.getInstance();
+		if (metrics.isEmpty())
+			return;
+		File metricsFile = new File(outputFolder, Settings.METRICS_FILE_NAME);
+		try {
+			metrics.writeTo(metricsFile);
+		} catch (IOException e) {
+			LOG.warn("Can't write metrics to " + metricsFile + ": " + e.toString());
+		}
+	}
+
 	private static void writeExitCodeToFileOrJustExit(int exitcode, File exitcodeFile) {
 		if (exitcodeFile != null) {
+			// written first, so metrics and events are there once the exit code is
+			writeMetrics(exitcodeFile.getParentFile());
+			EventLog.getInstance().exit(exitcode);
 			try {
 				FileUtils.writeStringToFile(exitcodeFile, Integer.toString(exitcode), "UTF-8");
 			} catch (IOException e) {
@@ -0,0 +1,124 @@
+package org.scm4j.installer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snapshot of the product catalog: products with their hidden flags and versions with their visibility flags.
+ */
+public class Catalog {
+
+	private final Map<String, Boolean> hiddenProducts = new ConcurrentHashMap<>();
+	private final Map<String, Map<String, Boolean>> productVersions = new ConcurrentHashMap<>();
+	private final Map<String, VersionIndex> versionIndexes = new ConcurrentHashMap<>();
+	private final Map<String, String> validators = new ConcurrentHashMap<>();
+	private volatile long fetchedAt;
+	private volatile long validatedAt;
+	private volatile long revision;
+
+	public void putProduct(String productName, boolean hidden) {
+		hiddenProducts.put(productName, hidden);
+	}
+
+	public void putVersions(String productName, Map<String, Boolean> versions) {
+		Map<String, Boolean> copy = Collections.unmodifiableMap(new ConcurrentHashMap<>(versions));
+		versionIndexes.put(productName, new VersionIndex(copy));
+		productVersions.put(productName, copy);
+	}
+
+	public Set<String> getProductNames() {
+		return Collections.unmodifiableSet(hiddenProducts.keySet());
+	}
+
+	public boolean isHidden(String productName) {
+		return hiddenProducts.getOrDefault(productName, false);
+	}
+
+	public boolean hasVersions(String productName) {
+		return productVersions.containsKey(productName);
+	}
+
+	public Map<String, Boolean> getVersions(String productName) {
+		return productVersions.get(productName);
+	}
+
+	/**
+	 * @return index of released versions of the product or null if versions are unknown
+	 */
+	public VersionIndex getVersionIndex(String productName) {
+		return versionIndexes.get(productName);
+	}
+
+	/**
+	 * @return released versions of the product, latest first, or empty list if versions are unknown
+	 */
+	public List<String> listVersions(String productName, boolean showHiddenVersions) {
+		VersionIndex versionIndex = versionIndexes.get(productName);
+		return versionIndex == null ? Collections.emptyList() : versionIndex.list(showHiddenVersions);
+	}
+
+	public String getLatestVersion(String productName) {
+		VersionIndex versionIndex = versionIndexes.get(productName);
+		return versionIndex == null ? null : versionIndex.getLatest(false);
+	}
+
+	/**
+	 * Takes versions of the products which are missing in this catalog from the given one.
+	 */
+	public void fillMissingVersions(Catalog catalog) {
+		for (String productName : getProductNames()) {
+			if (!hasVersions(productName) && catalog.hasVersions(productName)) {
+				versionIndexes.put(productName, catalog.getVersionIndex(productName));
+				productVersions.put(productName, catalog.getVersions(productName));
+			}
+		}
+	}
+
+	public Map<String, String> getValidators() {
+		return validators;
+	}
+
+	public long getFetchedAt() {
+		return fetchedAt;
+	}
+
+	public void setFetchedAt(long fetchedAt) {
+		this.fetchedAt = fetchedAt;
+	}
+
+	/**
+	 * @return time the snapshot was last confirmed not modified, versions are not checked by that
+	 */
+	public long getValidatedAt() {
+		return validatedAt;
+	}
+
+	public void setValidatedAt(long validatedAt) {
+		this.validatedAt = validatedAt;
+	}
+
+	public long getRevision() {
+		return revision;
+	}
+
+	public void setRevision(long revision) {
+		this.revision = revision;
+	}
+
+	/**
+	 * @return time since the last full load
+	 */
+	public long getAge() {
+		return System.currentTimeMillis() - fetchedAt;
+	}
+
+	/**
+	 * @return time since the last full load or revalidation, whichever is later
+	 */
+	public long getValidatedAge() {
+		return System.currentTimeMillis() - Math.max(fetchedAt, validatedAt);
+	}
+}
@@ -0,0 +1,197 @@
+package org.scm4j.installer;
+
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the catalog snapshot in the working folder and revalidates it against the product list metadata using
+ * conditional requests.
+ */
+public class CatalogCache {
+
+	public static final int FORMAT = 1;
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(CatalogCache.class);
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "modified";
+
+	private final File file;
+	private final MirrorSelector selector;
+
+	public CatalogCache() {
+		this(new File(Settings.getWorkingFolder(), Settings.CATALOG_FILE_NAME),
+				MirrorRelay.getInstance().getSelector());
+	}
+
+	public CatalogCache(File file, MirrorSelector selector) {
+		this.file = file;
+		this.selector = selector;
+	}
+
+	/**
+	 * @return stored snapshot or null if there is no snapshot or it can not be read
+	 */
+	@SuppressWarnings("try")
+	public Catalog load() {
+		if (!file.exists())
+			return null;
+		Properties props = new Properties();
+		try (FileLocks.Handle lock = FileLocks.lock(getLockFile(), false);
+		     InputStream in = Files.newInputStream(file.toPath())) {
+			props.load(in);
+		} catch (IOException e) {
+			LOG.warn("Can't read catalog snapshot " + file + ": " + e.toString());
+			return null;
+		}
+		if (!Integer.toString(FORMAT).equals(props.getProperty("format")))
+			return null;
+		try {
+			Catalog catalog = new Catalog();
+			catalog.setRevision(Long.parseLong(props.getProperty("revision")));
+			catalog.setFetchedAt(Long.parseLong(props.getProperty("fetched")));
+			catalog.setValidatedAt(Long.parseLong(props.getProperty("validated", "0")));
+			int productCount = Integer.parseInt(props.getProperty("products"));
+			for (int i = 0; i < productCount; i++) {
+				String productName = props.getProperty("product." + i + ".name");
+				String hidden = props.getProperty("product." + i + ".hidden");
+				catalog.putProduct(productName, Boolean.parseBoolean(hidden));
+				String versions = props.getProperty("product." + i + ".versions");
+				if (versions != null)
+					catalog.putVersions(productName, parseVersions(versions));
+			}
+			for (String key : props.stringPropertyNames()) {
+				if (key.startsWith("validator."))
+					catalog.getValidators().put(key.substring("validator.".length()), props.getProperty(key));
+			}
+			return catalog;
+		} catch (RuntimeException e) {
+			LOG.warn("Corrupted catalog snapshot " + file + ": " + e.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * @return content of the stored snapshot
+	 */
+	@SuppressWarnings("try")
+	public byte[] read() throws IOException {
+		try (FileLocks.Handle lock = FileLocks.lock(getLockFile(), false)) {
+			return Files.readAllBytes(file.toPath());
+		}
+	}
+
+	/**
+	 * Writes the snapshot atomically and increments its revision.
+	 */
+	@SuppressWarnings("try")
+	public synchronized void save(Catalog catalog) {
+		catalog.setRevision(catalog.getRevision() + 1);
+		Properties props = new Properties();
+		props.setProperty("format", Integer.toString(FORMAT));
+		props.setProperty("revision", Long.toString(catalog.getRevision()));
+		props.setProperty("fetched", Long.toString(catalog.getFetchedAt()));
+		props.setProperty("validated", Long.toString(catalog.getValidatedAt()));
+		int i = 0;
+		for (String productName : catalog.getProductNames()) {
+			props.setProperty("product." + i + ".name", productName);
+			props.setProperty("product." + i + ".hidden", Boolean.toString(catalog.isHidden(productName)));
+			if (catalog.hasVersions(productName)) {
+				String versions = formatVersions(catalog.getVersions(productName));
+				props.setProperty("product." + i + ".versions", versions);
+			}
+			i++;
+		}
+		props.setProperty("products", Integer.toString(i));
+		for (Map.Entry<String, String> validator : catalog.getValidators().entrySet())
+			props.setProperty("validator." + validator.getKey(), validator.getValue());
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try (FileLocks.Handle lock = FileLocks.lock(getLockFile(), true)) {
+			try (OutputStream out = Files.newOutputStream(tmpFile.toPath())) {
+				props.store(out, "catalog snapshot");
+			}
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOG.warn("Can't write catalog snapshot " + file + ": " + e.toString());
+		}
+	}
+
+	/**
+	 * @return file locked shared by readers and exclusively by writers, unlike the snapshot it is not replaced on save
+	 */
+	private File getLockFile() {
+		return new File(file.getPath() + ".lock");
+	}
+
+	/**
+	 * @return true if the snapshot is loaded or revalidated recently and its versions are not older than the max age
+	 */
+	public static boolean isFresh(Catalog catalog) {
+		return catalog.getValidatedAge() < TimeUnit.MINUTES.toMillis(Settings.CATALOG_TTL_MINUTES)
+				&& catalog.getAge() < TimeUnit.HOURS.toMillis(Settings.CATALOG_MAX_AGE_HOURS);
+	}
+
+	/**
+	 * Sends conditional request for the product list metadata to the healthiest mirror. Validators of the catalog
+	 * are updated from the response.
+	 *
+	 * @return true if the product list is not modified since the snapshot was taken, false without a request if the
+	 * last full load is older than the max age as versions are not covered by the validators
+	 * @throws IOException if no mirror answered
+	 */
+	public boolean revalidate(Catalog catalog) throws IOException {
+		if (catalog.getAge() > TimeUnit.HOURS.toMillis(Settings.CATALOG_MAX_AGE_HOURS))
+			return false;
+		Map<String, String> validators = catalog.getValidators();
+		Map<String, String> headers = new HashMap<>();
+		if (validators.containsKey(ETAG))
+			headers.put("If-None-Match", validators.get(ETAG));
+		if (validators.containsKey(LAST_MODIFIED))
+			headers.put("If-Modified-Since", validators.get(LAST_MODIFIED));
+		MirrorSelector.Response response = selector.fetch(Settings.PRODUCT_LIST_METADATA, "HEAD", headers);
+		if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+			return true;
+		if (response.getCode() != HttpURLConnection.HTTP_OK)
+			throw new IOException("Unexpected response " + response.getCode() + " from "
+					+ response.getMirror().getUrl());
+		String etag = response.getHeader("ETag");
+		boolean notModified = etag != null && etag.equals(validators.get(ETAG));
+		if (etag != null)
+			validators.put(ETAG, etag);
+		if (response.getHeader("Last-Modified") != null)
+			validators.put(LAST_MODIFIED, response.getHeader("Last-Modified"));
+		return notModified;
+	}
+
+	private static Map<String, Boolean> parseVersions(String versions) {
+		Map<String, Boolean> res = new HashMap<>();
+		for (String version : versions.split(",")) {
+			if (version.isEmpty())
+				continue;
+			int sep = version.lastIndexOf('=');
+			res.put(version.substring(0, sep), Boolean.parseBoolean(version.substring(sep + 1)));
+		}
+		return res;
+	}
+
+	private static String formatVersions(Map<String, Boolean> versions) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Boolean> version : versions.entrySet()) {
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(version.getKey()).append('=').append(version.getValue());
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,165 @@
+package org.scm4j.installer;
+
+import org.scm4j.deployer.api.ProductInfo;
+import org.scm4j.deployer.engine.DeployerEngine;
+import org.slf4j.Logger;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Refreshes product versions in parallel with a bounded number of workers and a per-product timeout.
+ */
+public class CatalogLoader {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(CatalogLoader.class);
+
+	private final DeployerEngine deployerEngine;
+	private final int threads;
+	private final long timeoutMillis;
+	private ExecutorService executor;
+	private ScheduledExecutorService watchdog;
+
+	public CatalogLoader(DeployerEngine deployerEngine) {
+		this(deployerEngine, Settings.CATALOG_LOAD_THREADS,
+				TimeUnit.SECONDS.toMillis(Settings.CATALOG_LOAD_TIMEOUT_SECONDS));
+	}
+
+	public CatalogLoader(DeployerEngine deployerEngine, int threads, long timeoutMillis) {
+		this.deployerEngine = deployerEngine;
+		this.threads = threads;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Starts refreshing versions of the given products. Returns immediately, the listener is called from worker
+	 * threads exactly once per product and {@link Listener#finished()} is called after the last product.
+	 */
+	public synchronized void load(Collection<String> productNames, Listener listener) {
+		cancel();
+		ExecutorService pool = Executors.newFixedThreadPool(threads, daemonThreads("catalog-loader"));
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("catalog-timer"));
+		executor = pool;
+		watchdog = timer;
+		if (productNames.isEmpty()) {
+			pool.shutdown();
+			timer.shutdown();
+			listener.finished();
+			return;
+		}
+		AtomicInteger remaining = new AtomicInteger(productNames.size());
+		for (String productName : productNames) {
+			AtomicReference<Future<?>> self = new AtomicReference<>();
+			FutureTask<Void> task = new FutureTask<>(() -> {
+				if (timer.isShutdown())
+					return;
+				AtomicBoolean reported = new AtomicBoolean();
+				// interrupts only this task, the pool clears the interrupt before running the next one
+				ScheduledFuture<?> timeout = timer.schedule(() -> {
+					if (reported.compareAndSet(false, true)) {
+						LOG.warn("Timeout refreshing versions of " + productName);
+						listener.failed(productName, new TimeoutException("No versions received in "
+								+ timeoutMillis + " ms"));
+						self.get().cancel(true);
+					}
+				}, timeoutMillis, TimeUnit.MILLISECONDS);
+				try (Metrics.Timer phase = Metrics.getInstance().time("version listing", productName)) {
+					Map<String, Boolean> versions = deployerEngine.refreshProductVersions(productName);
+					phase.done();
+					if (reported.compareAndSet(false, true))
+						listener.loaded(productName, versions);
+				} catch (Exception e) {
+					LOG.warn("Error refreshing versions of " + productName + ": " + e.toString());
+					if (reported.compareAndSet(false, true))
+						listener.failed(productName, e);
+				} finally {
+					timeout.cancel(false);
+					if (remaining.decrementAndGet() == 0) {
+						pool.shutdown();
+						timer.shutdown();
+						listener.finished();
+					}
+				}
+			}, null);
+			self.set(task);
+			pool.execute(task);
+		}
+	}
+
+	/**
+	 * Refreshes the product list and versions of all products and waits for them.
+	 *
+	 * @return catalog without versions of the products failed to refresh
+	 */
+	public Catalog refresh() throws InterruptedException {
+		try (Metrics.Timer timer = Metrics.getInstance().time("catalog refresh", null)) {
+			Catalog catalog = refreshCatalog();
+			timer.done();
+			return catalog;
+		}
+	}
+
+	private Catalog refreshCatalog() throws InterruptedException {
+		Catalog catalog = new Catalog();
+		Map<String, ProductInfo> products = deployerEngine.refreshProducts();
+		for (Map.Entry<String, ProductInfo> product : products.entrySet())
+			catalog.putProduct(product.getKey(), product.getValue().isHidden());
+		CountDownLatch latch = new CountDownLatch(1);
+		load(products.keySet(), new Listener() {
+			@Override
+			public void loaded(String productName, Map<String, Boolean> versions) {
+				catalog.putVersions(productName, versions);
+			}
+
+			@Override
+			public void failed(String productName, Exception e) {
+			}
+
+			@Override
+			public void finished() {
+				latch.countDown();
+			}
+		});
+		latch.await();
+		catalog.setFetchedAt(System.currentTimeMillis());
+		return catalog;
+	}
+
+	public synchronized void cancel() {
+		if (executor != null)
+			executor.shutdownNow();
+		if (watchdog != null)
+			watchdog.shutdownNow();
+	}
+
+	static ThreadFactory daemonThreads(String name) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + '-' + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	public interface Listener {
+
+		void loaded(String productName, Map<String, Boolean> versions);
+
+		void failed(String productName, Exception e);
+
+		void finished();
+	}
+}
@@ -0,0 +1,58 @@
+package org.scm4j.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public final class Checksums {
+
+	public static final String SHA1 = "SHA-1";
+	public static final String MD5 = "MD5";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private Checksums() {
+	}
+
+	public static MessageDigest newDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static String hash(File file, String algorithm) throws IOException {
+		MessageDigest digest = newDigest(algorithm);
+		byte[] buffer = new byte[Settings.COPY_BUFFER_SIZE];
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				digest.update(buffer, 0, n);
+		}
+		return toHex(digest.digest());
+	}
+
+	public static String toHex(byte[] bytes) {
+		char[] res = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			res[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			res[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(res);
+	}
+
+	/**
+	 * @return checksum from the content of a .sha1 or .md5 file which may also contain the file name
+	 */
+	public static String parse(String checksumFileContent) {
+		String trimmed = checksumFileContent.trim();
+		int end = 0;
+		while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end)))
+			end++;
+		return trimmed.substring(0, end).toLowerCase();
+	}
+}
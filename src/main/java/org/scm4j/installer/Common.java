@@ -1,7 +1,5 @@
 package org.scm4j.installer;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang3.SystemUtils;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.FontData;
@@ -11,19 +9,9 @@ import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.MessageBox;
 import org.eclipse.swt.widgets.Shell;
 import org.scm4j.deployer.engine.DeployerEngine;
-import org.slf4j.Logger;
-
-import java.io.File;
-import java.io.IOException;
-import java.net.URLDecoder;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 public final class Common {
 
-	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(Common.class);
-
 	private Common() {
 	}
 
@@ -55,52 +43,11 @@ public final class Common {
 	}
 
 	public static void downloadWithProgress(Shell shell, DeployerEngine deployerEngine, String product, String version) {
-		Progress progress = new Progress(shell, "Downloading", () ->
-				deployerEngine.download(product, version));
+		Progress progress = new Progress(shell, "Downloading", () -> Metrics.getInstance().timeDownload(deployerEngine,
+				product, version), new TransferProgress());
 		Common.checkError(progress, shell, "Error downloading product");
 	}
 
-	public static int createBatAndTaskForWindowsTaskScheduler(String product, String version, String outputFolderName)
-			throws Exception {
-		return createBatAndTaskForWindowsTaskScheduler("start cmd /c \"" + Settings.getRunningFile().getPath()
-				+ " deploy " + product + ' ' + version + " -a -i -r \"" + outputFolderName + "\"\"");
-	}
-
-	public static int createBatAndTaskForWindowsTaskScheduler(String product, String version)
-			throws Exception {
-		return createBatAndTaskForWindowsTaskScheduler("start cmd /c \"" + Settings.getRunningFile().getPath()
-				+ " deploy " + product + ' ' + version + " -a\"");
-	}
-
-	public static int createBatAndTaskForWindowsTaskScheduler(String taskCommand) throws Exception {
-		String taskAndBatName = "afterReboot" + System.nanoTime();
-		File tempBatFile = new File(System.getProperty("java.io.tmpdir"), taskAndBatName + ".bat");
-		List<String> taskEntry = new ArrayList<>(Arrays.asList("schtasks", "/Create", "/ru", "\"System\"", "/tn",
-				taskAndBatName, "/sc", "ONSTART", "/tr", '\"' + tempBatFile.getPath() + '\"'));
-		if (!SystemUtils.IS_OS_WINDOWS_XP) {
-			taskEntry.add("/rl");
-			taskEntry.add("highest");
-		}
-		List<String> batCommands = Arrays.asList("@echo off", taskCommand,
-				"schtasks /delete /tn " + taskAndBatName + " /f", "(goto) 2>nul & del \"%~f0\"");
-		FileUtils.writeLines(tempBatFile, "UTF-8", batCommands);
-		LOG.info("Bat write successfully");
-		ProcessBuilder builder = new ProcessBuilder(taskEntry).redirectErrorStream(true);
-		Process p = builder.start();
-		int exitcode = p.waitFor();
-		LOG.info("exit code from task creation is " + exitcode);
-		return exitcode;
-	}
-
-	public static void restartPc() {
-		try {
-			Runtime.getRuntime().exec("shutdown -r");
-		} catch (IOException e) {
-			//ok
-		}
-		System.exit(0);
-	}
-
 	public static void centerWindow(Rectangle parent, Shell shellToCenter) {
 		Rectangle shellSize = shellToCenter.getBounds();
 		shellToCenter.setLocation((parent.width - shellSize.width) / 2 + parent.x,
@@ -118,23 +65,6 @@ public final class Common {
 		return false;
 	}
 
-	public static void copyJreIfNotExists() {
-		String jreVersion = "jre-1.8.0_171";
-		File jreFile = new File(Settings.DEFAULT_INSTALLER_URL, jreVersion);
-		if (!jreFile.exists()) {
-			jreFile.mkdirs();
-			try {
-				String path = Settings.class.getProtectionDomain().getCodeSource().getLocation().getPath();
-				String decodedPath = URLDecoder.decode(path, "UTF-8");
-				File jarFile = new File(decodedPath);
-				File installerJreFile = new File(jarFile.getParentFile().getParentFile(), jreVersion);
-				FileUtils.copyDirectory(installerJreFile, jreFile);
-			} catch (Exception e) {
-				throw new RuntimeException(e);
-			}
-		}
-	}
-
 	public static void resizeFonts(Display display, Control ctrl, int size) {
 		FontData[] fDates = ctrl.getFont().getFontData();
 		for (FontData fData : fDates)
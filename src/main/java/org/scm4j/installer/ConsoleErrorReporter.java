@@ -0,0 +1,29 @@
+package org.scm4j.installer;
+
+/**
+ * Prints errors and warnings to stderr, information to stdout. Loads no SWT classes, so silent runs work without
+ * display.
+ */
+public class ConsoleErrorReporter implements ErrorReporter {
+
+	@Override
+	public void error(String message, Throwable exception) {
+		StringBuilder sb = new StringBuilder(message == null ? "" : message);
+		if (exception != null) {
+			if (sb.length() > 0)
+				sb.append(' ');
+			sb.append(exception.getMessage() != null ? exception.getMessage() : exception.toString());
+		}
+		System.err.println(sb);
+	}
+
+	@Override
+	public void warn(String message) {
+		System.err.println(message);
+	}
+
+	@Override
+	public void info(String message) {
+		System.out.println(message);
+	}
+}
@@ -0,0 +1,105 @@
+package org.scm4j.installer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Block patch which rebuilds an artifact from its previous version. The repository publishes it next to the artifact
+ * as &lt;artifact file&gt;.from-&lt;previous version&gt;.delta. Format, numbers are big-endian:
+ * <pre>
+ * "SCM4JDLT" target length (long)
+ * operations up to the end of the file:
+ *   'C' source offset (long) length (int) - copy from the previous version
+ *   'D' length (int) bytes                - new data
+ * </pre>
+ */
+public final class DeltaPatch {
+
+	private static final byte[] MAGIC = "SCM4JDLT".getBytes(StandardCharsets.US_ASCII);
+	private static final int COPY = 'C';
+	private static final int DATA = 'D';
+
+	private DeltaPatch() {
+	}
+
+	public static String getPath(String artifactPath, String fromVersion) {
+		return artifactPath + ".from-" + fromVersion + ".delta";
+	}
+
+	/**
+	 * Writes the target rebuilt from the source and the delta.
+	 *
+	 * @throws IOException if the delta is corrupted or does not fit the source
+	 */
+	public static void apply(File source, File delta, File target) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(delta.toPath()),
+				Settings.COPY_BUFFER_SIZE));
+		     FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		     OutputStream out = new BufferedOutputStream(Files.newOutputStream(target.toPath()),
+				     Settings.COPY_BUFFER_SIZE)) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new IOException("Not a delta: " + delta);
+			long targetLength = in.readLong();
+			long sourceLength = sourceChannel.size();
+			byte[] buffer = new byte[Settings.COPY_BUFFER_SIZE];
+			long written = 0;
+			int op;
+			while ((op = in.read()) != -1) {
+				if (op == COPY) {
+					long offset = in.readLong();
+					int length = in.readInt();
+					if (offset < 0 || length < 0 || offset + length > sourceLength)
+						throw new IOException("Copy " + offset + "+" + length + " is out of " + source);
+					copy(sourceChannel, offset, length, out, buffer);
+					written += length;
+				} else if (op == DATA) {
+					int length = in.readInt();
+					if (length < 0)
+						throw new IOException("Negative data length in " + delta);
+					for (int left = length; left > 0; ) {
+						int n = in.read(buffer, 0, Math.min(buffer.length, left));
+						if (n == -1)
+							throw new EOFException("Truncated delta " + delta);
+						out.write(buffer, 0, n);
+						left -= n;
+					}
+					written += length;
+				} else {
+					throw new IOException("Unknown operation " + op + " in " + delta);
+				}
+				if (written > targetLength)
+					throw new IOException("Delta " + delta + " exceeds target length " + targetLength);
+			}
+			if (written != targetLength)
+				throw new IOException("Delta " + delta + " built " + written + " of " + targetLength + " bytes");
+		}
+	}
+
+	private static void copy(FileChannel source, long offset, int length, OutputStream out, byte[] buffer)
+			throws IOException {
+		ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+		long position = offset;
+		long end = offset + length;
+		while (position < end) {
+			byteBuffer.clear().limit((int) Math.min(buffer.length, end - position));
+			int n = source.read(byteBuffer, position);
+			if (n == -1)
+				throw new EOFException("Source ended at " + position);
+			out.write(buffer, 0, n);
+			position += n;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package org.scm4j.installer;
+
+import org.scm4j.deployer.api.ProductInfo;
+import org.scm4j.deployer.engine.DeployerEngine;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs {@link DeployerEngine} calls off the UI thread. Every call returns a future which cancel interrupts the call.
+ * A call supersedes the running call of the same kind, so results of stale requests never reach the UI. Results
+ * are delivered to the UI by the given executor, usually {@code Display.asyncExec}.
+ */
+public class EngineService {
+
+	private final Supplier<DeployerEngine> deployerEngine;
+	private final Executor uiExecutor;
+	private final ExecutorService executor = Executors.newCachedThreadPool(CatalogLoader.daemonThreads("engine"));
+	private final Map<String, CompletableFuture<?>> running = new ConcurrentHashMap<>();
+	private final AtomicInteger catalogGeneration = new AtomicInteger();
+	private CatalogLoader catalogLoader;
+
+	public EngineService(Supplier<DeployerEngine> deployerEngine, Executor uiExecutor) {
+		this.deployerEngine = deployerEngine;
+		this.uiExecutor = uiExecutor;
+	}
+
+	/**
+	 * Calls the engine in background cancelling the running call with the same key.
+	 */
+	public <T> CompletableFuture<T> submit(String key, Function<DeployerEngine, T> call) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		CompletableFuture<?> previous = running.put(key, result);
+		if (previous != null)
+			previous.cancel(true);
+		Future<?> task = executor.submit(() -> {
+			try {
+				result.complete(call.apply(deployerEngine.get()));
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+		});
+		result.whenComplete((res, e) -> {
+			running.remove(key, result);
+			if (result.isCancelled())
+				task.cancel(true);
+		});
+		return result;
+	}
+
+	/**
+	 * Runs a task which is not an engine call but must not block the UI either.
+	 */
+	public CompletableFuture<Void> run(String key, Runnable runnable) {
+		return submit(key, engine -> {
+			runnable.run();
+			return null;
+		});
+	}
+
+	public CompletableFuture<Map<String, String>> mapDeployedProducts() {
+		return submit("deployed", DeployerEngine::mapDeployedProducts);
+	}
+
+	public CompletableFuture<Map<String, ProductInfo>> refreshProducts() {
+		return submit("products", DeployerEngine::refreshProducts);
+	}
+
+	/**
+	 * Delivers the result or the error of the future on the UI thread, nothing is delivered if it is cancelled.
+	 */
+	public <T> void onUi(CompletableFuture<T> future, Consumer<T> onResult, Consumer<Throwable> onError) {
+		future.whenComplete((res, e) -> uiExecutor.execute(() -> {
+			if (future.isCancelled())
+				return;
+			if (e == null)
+				onResult.accept(res);
+			else
+				onError.accept(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+		}));
+	}
+
+	/**
+	 * Refreshes versions of the products in parallel cancelling the load in progress if any. Listener calls are
+	 * delivered on the UI thread, calls of a cancelled load are dropped.
+	 */
+	public synchronized void loadVersions(Collection<String> productNames, CatalogLoader.Listener listener) {
+		if (catalogLoader == null)
+			catalogLoader = new CatalogLoader(deployerEngine.get());
+		int generation = catalogGeneration.incrementAndGet();
+		catalogLoader.load(productNames, new CatalogLoader.Listener() {
+			@Override
+			public void loaded(String productName, Map<String, Boolean> versions) {
+				deliver(() -> listener.loaded(productName, versions));
+			}
+
+			@Override
+			public void failed(String productName, Exception e) {
+				deliver(() -> listener.failed(productName, e));
+			}
+
+			@Override
+			public void finished() {
+				deliver(listener::finished);
+			}
+
+			private void deliver(Runnable runnable) {
+				if (catalogGeneration.get() != generation)
+					return;
+				uiExecutor.execute(() -> {
+					if (catalogGeneration.get() == generation)
+						runnable.run();
+				});
+			}
+		});
+	}
+
+	/**
+	 * Cancels all the calls and the versions load in progress.
+	 */
+	public synchronized void cancelAll() {
+		catalogGeneration.incrementAndGet();
+		if (catalogLoader != null)
+			catalogLoader.cancel();
+		for (CompletableFuture<?> future : running.values())
+			future.cancel(true);
+	}
+
+	public void shutdown() {
+		cancelAll();
+		executor.shutdownNow();
+	}
+}
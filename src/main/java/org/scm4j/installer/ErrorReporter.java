@@ -0,0 +1,17 @@
+package org.scm4j.installer;
+
+/**
+ * Reports results and errors of the commands to the user: message boxes of the GUI or the console in silent mode.
+ */
+public interface ErrorReporter {
+
+	/**
+	 * @param message message or null
+	 * @param exception cause or null
+	 */
+	void error(String message, Throwable exception);
+
+	void warn(String message);
+
+	void info(String message);
+}
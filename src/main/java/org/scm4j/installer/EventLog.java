@@ -0,0 +1,173 @@
+package org.scm4j.installer;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Newline-delimited JSON events of a silent run written to the result folder, so orchestration tools can tail the
+ * run instead of parsing logs. Events are written by a background thread and flushed at phase boundaries. Nothing
+ * is written until the log is opened.
+ */
+public class EventLog {
+
+	public static final String EVENT_PHASE_START = "phaseStart";
+	public static final String EVENT_PHASE_END = "phaseEnd";
+	public static final String EVENT_PROGRESS = "progress";
+	public static final String EVENT_WARNING = "warning";
+	public static final String EVENT_RESULT = "result";
+	public static final String EVENT_EXIT = "exit";
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(EventLog.class);
+	private static final Object FLUSH = new Object();
+	private static final Object CLOSE = new Object();
+	private static EventLog instance;
+
+	private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+	private volatile Thread writerThread;
+	private AppenderBase<ILoggingEvent> warningAppender;
+
+	public static synchronized EventLog getInstance() {
+		if (instance == null)
+			instance = new EventLog();
+		return instance;
+	}
+
+	/**
+	 * Starts writing events to the file, warnings logged from now on are written too.
+	 *
+	 * @param append true to continue the log of the run interrupted by reboot
+	 */
+	public synchronized void open(File file, boolean append) throws IOException {
+		if (writerThread != null)
+			throw new IllegalStateException("Event log is open already");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8);
+		writerThread = CatalogLoader.daemonThreads("event-writer").newThread(() -> write(writer));
+		writerThread.start();
+		attachWarningAppender();
+	}
+
+	public void phaseStarted(String phase, String detail) {
+		emit(true, EVENT_PHASE_START, "phase", phase, "detail", detail);
+	}
+
+	public void phaseEnded(String phase, String detail, long millis, String result) {
+		emit(true, EVENT_PHASE_END, "phase", phase, "detail", detail, "millis", millis, "result", result);
+	}
+
+	public void progress(TransferProgress progress) {
+		emit(true, EVENT_PROGRESS, "done", progress.getDone(), "total", progress.getTotal(), "bytesPerSecond",
+				(long) progress.getBytesPerSecond(), "secondsLeft", progress.getSecondsLeft());
+	}
+
+	public void warning(String source, String message) {
+		emit(false, EVENT_WARNING, "source", source, "message", message);
+	}
+
+	public void result(String product, String version, String result, String message) {
+		emit(true, EVENT_RESULT, "product", product, "version", version, "result", result, "message", message);
+	}
+
+	/**
+	 * Writes the exit code and waits for all events to be written.
+	 */
+	public void exit(int exitcode) {
+		emit(true, EVENT_EXIT, "exitcode", exitcode);
+		close();
+	}
+
+	public synchronized void close() {
+		Thread thread = writerThread;
+		if (thread == null)
+			return;
+		detachWarningAppender();
+		queue.add(CLOSE);
+		try {
+			thread.join(Settings.HTTP_TIMEOUT_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writerThread = null;
+	}
+
+	private void emit(boolean flush, String event, Object... fields) {
+		if (writerThread == null)
+			return;
+		StringBuilder sb = new StringBuilder("{\"time\": ").append(System.currentTimeMillis())
+				.append(", \"event\": ").append(Metrics.quote(event));
+		for (int i = 0; i < fields.length; i += 2) {
+			Object value = fields[i + 1];
+			sb.append(", ").append(Metrics.quote((String) fields[i])).append(": ");
+			if (value == null)
+				sb.append("null");
+			else if (value instanceof Number)
+				sb.append(value);
+			else
+				sb.append(Metrics.quote(value.toString()));
+		}
+		queue.add(sb.append('}').toString());
+		if (flush)
+			queue.add(FLUSH);
+	}
+
+	private void write(Writer writer) {
+		try (Writer out = writer) {
+			boolean flushPending = false;
+			while (true) {
+				Object item = queue.take();
+				if (item == CLOSE)
+					break;
+				if (item == FLUSH) {
+					flushPending = true;
+				} else {
+					out.write((String) item);
+					out.write('\n');
+				}
+				// several boundaries queued at once are flushed once, after the events queued behind them
+				if (flushPending && queue.isEmpty()) {
+					out.flush();
+					flushPending = false;
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("Can't write events: " + e.toString());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void attachWarningAppender() {
+		if (!(LOG instanceof ch.qos.logback.classic.Logger))
+			return;
+		ch.qos.logback.classic.Logger root = ((ch.qos.logback.classic.Logger) LOG).getLoggerContext()
+				.getLogger(Logger.ROOT_LOGGER_NAME);
+		warningAppender = new AppenderBase<ILoggingEvent>() {
+			@Override
+			protected void append(ILoggingEvent event) {
+				if (event.getLevel().isGreaterOrEqual(Level.WARN))
+					warning(event.getLoggerName(), event.getFormattedMessage());
+			}
+		};
+		warningAppender.setContext(root.getLoggerContext());
+		warningAppender.start();
+		root.addAppender(warningAppender);
+	}
+
+	private void detachWarningAppender() {
+		if (warningAppender == null)
+			return;
+		((ch.qos.logback.classic.Logger) LOG).getLoggerContext().getLogger(Logger.ROOT_LOGGER_NAME)
+				.detachAppender(warningAppender);
+		warningAppender.stop();
+		warningAppender = null;
+	}
+}
@@ -0,0 +1,146 @@
+package org.scm4j.installer;
+
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks coordinating installer processes sharing the working folder. Each lock is a file lock guarded by a fair
+ * in-process lock, so threads queue in order and only one of them holds the file lock for the process. Downloads and
+ * deploys lock their product only, so unrelated products are processed in parallel. Waits are logged and recorded as
+ * "lock wait" phases.
+ */
+public final class FileLocks {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(FileLocks.class);
+	private static final Map<File, Stripe> stripes = new HashMap<>();
+
+	private FileLocks() {
+	}
+
+	/**
+	 * Locks the product for download or deploy.
+	 */
+	public static Handle lockProduct(String product) {
+		return lock(new File(Settings.getLocksFolder(), "product-" + product.replaceAll("[^\\w.-]", "_") + ".lock"),
+				true);
+	}
+
+	/**
+	 * Waits for the lock of the file, it is created if missing.
+	 *
+	 * @param exclusive false to share the lock with other readers
+	 */
+	public static Handle lock(File lockFile, boolean exclusive) {
+		Stripe stripe;
+		synchronized (stripes) {
+			stripe = stripes.computeIfAbsent(lockFile.getAbsoluteFile(), Stripe::new);
+		}
+		try {
+			return stripe.acquire(exclusive);
+		} catch (IOException e) {
+			throw new RuntimeException("Can't lock " + lockFile, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for " + lockFile, e);
+		}
+	}
+
+	public static class Handle implements AutoCloseable {
+
+		private final Stripe stripe;
+		private final Lock lock;
+
+		private Handle(Stripe stripe, Lock lock) {
+			this.stripe = stripe;
+			this.lock = lock;
+		}
+
+		@Override
+		public void close() {
+			try {
+				stripe.release();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private static class Stripe {
+
+		private final File file;
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+		private FileChannel channel;
+		private FileLock fileLock;
+		private int holders;
+
+		private Stripe(File file) {
+			this.file = file;
+		}
+
+		private Handle acquire(boolean exclusive) throws IOException, InterruptedException {
+			Lock threadLock = exclusive ? lock.writeLock() : lock.readLock();
+			long start = System.currentTimeMillis();
+			boolean waited = false;
+			// timed tryLock respects fairness unlike tryLock()
+			if (!threadLock.tryLock(0, TimeUnit.NANOSECONDS)) {
+				waited = true;
+				LOG.info("Waiting for " + file.getName() + " held by this process");
+				threadLock.lockInterruptibly();
+			}
+			try {
+				synchronized (this) {
+					if (holders == 0)
+						waited |= lockFile(!exclusive);
+					holders++;
+				}
+			} catch (IOException | RuntimeException e) {
+				threadLock.unlock();
+				throw e;
+			}
+			if (waited) {
+				long millis = System.currentTimeMillis() - start;
+				LOG.info("Waited " + millis + " ms for " + file.getName());
+				Metrics.getInstance().record("lock wait", file.getName(), millis, Metrics.RESULT_OK);
+			}
+			return new Handle(this, threadLock);
+		}
+
+		/**
+		 * @return true if another process held the lock
+		 */
+		private boolean lockFile(boolean shared) throws IOException {
+			// the channel is closed if the thread was interrupted while waiting
+			if (channel == null || !channel.isOpen()) {
+				file.getParentFile().mkdirs();
+				channel = new RandomAccessFile(file, "rw").getChannel();
+			}
+			fileLock = channel.tryLock(0, Long.MAX_VALUE, shared);
+			if (fileLock != null)
+				return false;
+			LOG.info("Waiting for " + file.getName() + " held by another process");
+			fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+			return true;
+		}
+
+		private synchronized void release() {
+			if (--holders > 0)
+				return;
+			try {
+				fileLock.release();
+			} catch (IOException e) {
+				LOG.warn("Can't release " + file + ": " + e.toString());
+			}
+			fileLock = null;
+		}
+	}
+}
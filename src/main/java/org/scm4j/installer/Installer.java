@@ -1,7 +1,6 @@
 package org.scm4j.installer;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.SashForm;
 import org.eclipse.swt.events.ControlAdapter;
@@ -18,24 +17,30 @@ import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.MessageBox;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableColumn;
 import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
 import org.scm4j.deployer.api.DeploymentResult;
 import org.scm4j.deployer.api.ProductInfo;
 import org.scm4j.deployer.engine.DeployerEngine;
 import org.slf4j.Logger;
 
 import java.beans.Beans;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.scm4j.deployer.api.DeploymentResult.ALREADY_INSTALLED;
 import static org.scm4j.deployer.api.DeploymentResult.NEWER_VERSION_EXISTS;
@@ -44,6 +49,7 @@ import static org.scm4j.deployer.api.DeploymentResult.OK;
 public class Installer {
 
 	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(Installer.class);
+	private static final String LOADING = "Loading...";
 
 	private DeployerEngine deployerEngine;
 
@@ -53,16 +59,29 @@ public class Installer {
 	private SashForm sashForm;
 	private FormData fd_sashForm;
 	private Table tableProducts;
+	private Text txtSearch;
+	private final ProductRows productRows = new ProductRows();
+	private String selectedProductName;
+	private final Map<String, String> deployedProducts = new ConcurrentHashMap<>();
+	private boolean deployedProductsLoaded;
+	private final AtomicBoolean reconciling = new AtomicBoolean();
 	private Composite compositeButtons;
 	private Button btnInstall;
+	private Button btnBatch;
 	private Button btnUninstall;
+	private Button btnMetrics;
 	private Button btnInstallFromCombo;
 	private Combo cmbVersions;
 	private String version;
 	private String installedVersion;
 	private String message;
 	private DeploymentResult result;
-	private Map<String, List<String>> versionsCache;
+	private Map<String, VersionIndex> versionIndexes;
+	private boolean showHiddenVersions;
+	private EngineService engineService;
+	private CompletableFuture<Void> jre;
+	private final CatalogCache catalogCache = new CatalogCache();
+	private Catalog catalog;
 
 	public static void main(String[] args) {
 		if (args.length > 0) {
@@ -84,6 +103,8 @@ public class Installer {
 		display = Display.getDefault();
 		shlInstaller = new Shell(display);
 		createContents();
+		engineService = new EngineService(this::getDeployerEngine, this::asyncExec);
+		shlInstaller.addDisposeListener(e -> engineService.shutdown());
 		if (!Beans.isDesignTime()) {
 			try {
 				init();
@@ -101,87 +122,229 @@ public class Installer {
 	}
 
 	private void init() throws Exception {
+		// provisioned while a product is chosen, deploy waits only for the rest of it
+		jre = engineService.run("jre", Platform::copyJreIfNotExists);
+		jre.whenComplete((res, e) -> {
+			if (e != null)
+				LOG.warn("Can't provision JRE: " + e.toString());
+		});
+		Catalog snapshot = catalogCache.load();
+		if (snapshot != null) {
+			catalog = snapshot;
+			fillProductsAndVersions(false, false);
+			if (!CatalogCache.isFresh(snapshot))
+				revalidate(snapshot);
+			return;
+		}
 		Wait wait = new Wait(shlInstaller);
+		Map<String, ProductInfo> products = new HashMap<>();
 		try {
-			Map<String, ProductInfo> map = new HashMap<>();
-			wait.open("Loading...", () -> {
-				Map<String, ProductInfo> products = getDeployerEngine().refreshProducts();
-				for (String productName : products.keySet()) {
-					getDeployerEngine().refreshProductVersions(productName);
-				}
-				map.putAll(products);
-			});
-			fillProductsAndVersions(map, false, false);
+			wait.open("Loading...", () -> products.putAll(getDeployerEngine().refreshProducts()));
 		} catch (Exception e) {
 			Common.showError(shlInstaller, "Error getting products and/or versions: ", e);
 			throw e;
 		}
+		loadProductVersions(products, null);
+	}
+
+	/**
+	 * Checks in background if the snapshot shown is still actual and reloads the catalog if it is not. Does nothing
+	 * if a check or reload is running already.
+	 */
+	private void revalidate(Catalog snapshot) {
+		if (!reconciling.compareAndSet(false, true))
+			return;
+		CompletableFuture<Map<String, ProductInfo>> products = engineService.submit("catalog-revalidate", engine -> {
+			try {
+				if (catalogCache.revalidate(snapshot)) {
+					LOG.info("Catalog snapshot revision " + snapshot.getRevision() + " is not modified");
+					snapshot.setValidatedAt(System.currentTimeMillis());
+					catalogCache.save(snapshot);
+					return null;
+				}
+			} catch (IOException e) {
+				LOG.warn("Can't revalidate catalog snapshot: " + e.toString());
+				return null;
+			}
+			return Metrics.getInstance().time("product list refresh", null, engine::refreshProducts);
+		});
+		engineService.onUi(products, refreshed -> {
+			if (refreshed != null)
+				loadProductVersions(refreshed, snapshot);
+			else
+				reconciling.set(false);
+		}, e -> {
+			LOG.warn("Error refreshing products: " + e.toString());
+			reconciling.set(false);
+		});
 	}
 
-	protected DeployerEngine getDeployerEngine() {
+	/**
+	 * Refreshes versions of all products in background, rows of visible products are added or updated as soon as
+	 * their versions arrive, a load in progress is cancelled. Versions of the products failed to refresh are taken
+	 * from the previous snapshot if any.
+	 */
+	private void loadProductVersions(Map<String, ProductInfo> products, Catalog previous) {
+		Catalog loaded = new Catalog();
+		for (Map.Entry<String, ProductInfo> product : products.entrySet())
+			loaded.putProduct(product.getKey(), product.getValue().isHidden());
+		if (previous == null) {
+			catalog = loaded;
+			versionIndexes = new HashMap<>();
+			showHiddenVersions = false;
+			for (String productName : loaded.getProductNames()) {
+				if (!loaded.isHidden(productName))
+					productRows.put(new ProductRows.Row(productName, getInstalledText(productName), LOADING,
+							ProductRows.Row.State.LOADING));
+			}
+			refreshTable();
+		}
+		reloadDeployedProducts();
+		engineService.loadVersions(products.keySet(), new CatalogLoader.Listener() {
+			@Override
+			public void loaded(String productName, Map<String, Boolean> versions) {
+				loaded.putVersions(productName, versions);
+				if (loaded.isHidden(productName))
+					return;
+				addProductRow(productName, loaded);
+				refreshTable();
+			}
+
+			@Override
+			public void failed(String productName, Exception e) {
+				if (loaded.isHidden(productName))
+					return;
+				if (previous != null && previous.hasVersions(productName))
+					addProductRow(productName, previous);
+				else
+					addFailedProductRow(productName);
+				refreshTable();
+			}
+
+			@Override
+			public void finished() {
+				LOG.info("Versions of " + products.size() + " products refreshed");
+				loaded.setFetchedAt(System.currentTimeMillis());
+				if (previous != null) {
+					loaded.fillMissingVersions(previous);
+					loaded.getValidators().putAll(previous.getValidators());
+				}
+				engineService.run("catalog-save", () -> {
+					if (previous == null) {
+						try {
+							catalogCache.revalidate(loaded);
+						} catch (IOException e) {
+							LOG.warn("Can't get catalog validators: " + e.toString());
+						}
+					}
+					catalogCache.save(loaded);
+				});
+				catalog = loaded;
+				productRows.retain(loaded.getProductNames());
+				refreshTable();
+				reconciling.set(false);
+			}
+		});
+	}
+
+	private void asyncExec(Runnable runnable) {
+		if (display.isDisposed())
+			return;
+		display.asyncExec(() -> {
+			if (!tableProducts.isDisposed())
+				runnable.run();
+		});
+	}
+
+	protected synchronized DeployerEngine getDeployerEngine() {
 		if (deployerEngine == null) {
-			deployerEngine = new DeployerEngine(Settings.getPortableFolder(), Settings.getWorkingFolder(),
-					Settings.PRODUCT_LIST_URL_1, Settings.PRODUCT_LIST_URL_2);
+			deployerEngine = Platform.createDeployerEngine();
 		}
 		return deployerEngine;
 	}
 
-	private void getProducts() {
-		try {
-			fillProductsAndVersions(getDeployerEngine().listProducts(), false, false);
-		} catch (Exception e) {
-			Common.showError(shlInstaller, "Error getting product list", e);
-		}
+	/**
+	 * Shows the catalog in memory at once, installed versions are updated when the engine answers.
+	 */
+	private void fillProductsAndVersions(boolean showHiddenProducts, boolean showHiddenVersions) {
+		versionIndexes = new HashMap<>();
+		this.showHiddenVersions = showHiddenVersions;
+		productRows.fill(catalog, showHiddenProducts, showHiddenVersions, this::getInstalledText, versionIndexes);
+		refreshTable();
+		reloadDeployedProducts();
 	}
 
-	private void fillProductsAndVersions(Map<String, ProductInfo> products, boolean showHiddenProducts,
-	                                     boolean showHiddenVersions) {
-		tableProducts.removeAll();
-		Map<String, String> deployedProducts = getDeployerEngine().mapDeployedProducts();
-		List<String> productNames = products.entrySet().stream()
-				.filter(e -> {
-					if (showHiddenProducts)
-								return true;
-							else
-								return !e.getValue().isHidden();
-						}
-				)
-				.map(Map.Entry::getKey)
-				.collect(Collectors.toList());
-		versionsCache = new HashMap<>();
-		for (String productName : productNames) {
-			try {
-				Map<String, Boolean> versions = getDeployerEngine().listProductVersions(productName);
-				String deployedVersion = deployedProducts.get(productName);
-				if (deployedVersion == null || deployedVersion.isEmpty()) {
-					deployedVersion = "Not installed";
+	/**
+	 * Asks the engine for installed versions in background cancelling the previous request, only the rows which
+	 * installed version changed are repainted.
+	 */
+	private void reloadDeployedProducts() {
+		engineService.onUi(engineService.mapDeployedProducts(), deployed -> {
+			deployedProducts.clear();
+			for (Map.Entry<String, String> product : deployed.entrySet()) {
+				if (product.getValue() != null)
+					deployedProducts.put(product.getKey(), product.getValue());
+			}
+			deployedProductsLoaded = true;
+			for (ProductRows.Row row : productRows.getRows()) {
+				if (productRows.put(row.withInstalled(getInstalledText(row.getName())))) {
+					int index = productRows.indexOf(row.getName());
+					if (index >= 0)
+						tableProducts.clear(index);
 				}
-				TableItem item = new TableItem(tableProducts, SWT.NONE);
-				List<String> filteredVersions = versions.entrySet().stream()
-						.filter(s -> !s.getKey().contains("-SNAPSHOT"))
-						.filter(e -> {
-							if (showHiddenVersions) {
-								return true;
-							} else {
-								return e.getValue();
-							}
-						})
-						.map(Map.Entry::getKey)
-						.sorted(Comparator.reverseOrder())
-						.collect(Collectors.toList());
-				versionsCache.put(productName, filteredVersions);
-				String latestVersion;
-				if (!filteredVersions.isEmpty())
-					latestVersion = filteredVersions.get(0);
-				else
-					latestVersion = "";
-				item.setText(0, productName);
-				item.setText(1, deployedVersion);
-				item.setText(2, latestVersion);
-			} catch (Exception e) {
-				Common.showError(shlInstaller, "Error getting product versions", e);
 			}
+			refreshButtons();
+		}, e -> Common.showError(shlInstaller, "Error getting installed products", e));
+	}
+
+	/**
+	 * Shows the row of the product just deployed or undeployed as loading until the engine tells its installed
+	 * version. The whole catalog is reconciled in background only if the snapshot is stale.
+	 */
+	private void productChanged(String productName) {
+		ProductRows.Row row = productRows.find(productName);
+		if (row != null && productRows.put(row.withInstalled(LOADING))) {
+			int index = productRows.indexOf(productName);
+			if (index >= 0)
+				tableProducts.clear(index);
 		}
+		reloadDeployedProducts();
+		if (!CatalogCache.isFresh(catalog))
+			revalidate(catalog);
+	}
+
+	private void addProductRow(String productName, Catalog catalog) {
+		VersionIndex versionIndex = catalog.getVersionIndex(productName);
+		versionIndexes.put(productName, versionIndex);
+		productRows.put(ProductRows.loadedRow(productName, getInstalledText(productName), versionIndex,
+				showHiddenVersions));
+	}
+
+	private void addFailedProductRow(String productName) {
+		productRows.put(ProductRows.failedRow(productName, getInstalledText(productName)));
+	}
+
+	private String getInstalledText(String productName) {
+		return deployedProductsLoaded ? ProductRows.toInstalledText(deployedProducts.get(productName)) : LOADING;
+	}
+
+	/**
+	 * Shows the current rows in the virtual table keeping the selected product selected if it is still visible.
+	 */
+	private void refreshTable() {
+		tableProducts.setItemCount(productRows.size());
+		tableProducts.clearAll();
+		int index = selectedProductName == null ? -1 : productRows.indexOf(selectedProductName);
+		if (index >= 0)
+			tableProducts.setSelection(index);
+		else
+			tableProducts.deselectAll();
+		refreshButtons();
+	}
+
+	private ProductRows.Row getSelectedRow() {
+		int index = tableProducts.getSelectionIndex();
+		return index == -1 ? null : productRows.get(index);
 	}
 
 	private void refreshButtons() {
@@ -190,13 +353,22 @@ public class Installer {
 			btnUninstall.setEnabled(false);
 			return;
 		}
-		String rawVersion = tableProducts.getItem(tableProducts.getSelectionIndex()).getText(1);
-		installedVersion = rawVersion.isEmpty() ? "Not installed" : rawVersion;
+		ProductRows.Row row = getSelectedRow();
+		if (row.getInstalled().equals(LOADING)) {
+			btnInstall.setEnabled(false);
+			btnUninstall.setEnabled(false);
+			return;
+		}
+		String rawVersion = row.getInstalled();
+		installedVersion = rawVersion.isEmpty() ? ProductRows.NOT_INSTALLED : rawVersion;
 		btnInstall.setEnabled(true);
 		btnUninstall.setEnabled(true);
-		if (!installedVersion.equals("Not installed")) {
-			if (compareTwoVersions(installedVersion, tableProducts.getItem(tableProducts.getSelectionIndex())
-					.getText(2)) >= 0) {
+		VersionIndex versionIndex = versionIndexes.get(row.getName());
+		if (versionIndex == null) {
+			btnInstall.setEnabled(false);
+			btnUninstall.setEnabled(!installedVersion.equals(ProductRows.NOT_INSTALLED));
+		} else if (!installedVersion.equals(ProductRows.NOT_INSTALLED)) {
+			if (!versionIndex.hasNewerThan(installedVersion, showHiddenVersions)) {
 				btnInstall.setEnabled(false);
 				btnUninstall.setEnabled(true);
 			}
@@ -206,27 +378,38 @@ public class Installer {
 		}
 	}
 
-	private int compareTwoVersions(String version1, String version2) {
-		DefaultArtifactVersion vers1 = new DefaultArtifactVersion(version1);
-		DefaultArtifactVersion vers2 = new DefaultArtifactVersion(version2);
-		return vers1.compareTo(vers2);
+	private void deploy(String productName, String version) {
+		waitForJre();
+		deployWithProgress(shlInstaller, getDeployerEngine(), productName, version);
+		productChanged(productName);
 	}
 
-	private void deploy(String productName, String version) {
+	/**
+	 * Waits for the JRE provisioned since start, the wait runs off the UI thread. Deploy goes on if it failed.
+	 */
+	private void waitForJre() {
+		if (jre.isCancelled())
+			jre = engineService.run("jre", Platform::copyJreIfNotExists);
+		if (!jre.isDone())
+			new Progress(shlInstaller, "Provisioning JRE", () -> {
+				try {
+					jre.join();
+				} catch (RuntimeException e) {
+					// shown below
+				}
+			}).open();
 		try {
-			Common.copyJreIfNotExists();
+			jre.join();
 		} catch (RuntimeException e) {
 			Common.showError(shlInstaller, "jre doesn't present in one package back, please download"
-					+ "it somewhere!", e);
+					+ "it somewhere!", e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
 		}
-		deployWithProgress(shlInstaller, getDeployerEngine(), productName, version);
-		getProducts();
 	}
 
 	void deployWithProgress(Shell shell, DeployerEngine engine, String product, String version) {
 		String productAndVersion = product + "-" + version;
 		Progress progress = new Progress(shell, "Installing " + productAndVersion, () -> {
-			result = engine.deploy(product, version);
+			result = Metrics.getInstance().timeDeploy(engine, product, version);
 			String errorMsg = result.getErrorMsg();
 			if (errorMsg == null)
 				errorMsg = "";
@@ -247,7 +430,7 @@ public class Installer {
 			case REBOOT_CONTINUE:
 				int exitcode = 0;
 				try {
-					exitcode = Common.createBatAndTaskForWindowsTaskScheduler(product, version);
+					exitcode = Platform.createBatAndTaskForWindowsTaskScheduler(product, version);
 				} catch (Exception e) {
 					message = e.toString() + "\n" + productAndVersion + " deploying failed!";
 					LOG.warn(message);
@@ -268,7 +451,7 @@ public class Installer {
 			default:
 				throw new RuntimeException("Invalid result!");
 			}
-		});
+		}, new TransferProgress());
 		if (!Common.checkError(progress, shell, "Error deploying product")) {
 			if (result == OK || result == NEWER_VERSION_EXISTS || result == ALREADY_INSTALLED) {
 				Common.showInfo(shell, message);
@@ -280,7 +463,7 @@ public class Installer {
 
 	private void undeploy(String productName) {
 		Progress progress = new Progress(shlInstaller, "Uninstalling " + productName, () -> {
-			result = getDeployerEngine().deploy(productName, "");
+			result = Metrics.getInstance().timeDeploy(getDeployerEngine(), productName, "");
 		});
 		if (!Common.checkError(progress, shlInstaller, "Error uninstall product")) {
 			if (result != OK) {
@@ -291,7 +474,7 @@ public class Installer {
 			} else {
 				Common.showInfo(shlInstaller, productName + " successfully uninstalled");
 			}
-			getProducts();
+			productChanged(productName);
 		}
 	}
 
@@ -302,8 +485,11 @@ public class Installer {
 		createShl();
 		createTblProducts();
 		createBtnsCmp();
+		createTxtSearch();
 		createBtnInstall();
 		createBtnUninstall();
+		createBtnBatch();
+		createBtnMetrics();
 	}
 
 	private void createShl() {
@@ -354,15 +540,25 @@ public class Installer {
 	}
 
 	private void createTblProducts() {
-		tableProducts = new Table(sashForm, SWT.SINGLE | SWT.BORDER | SWT.FULL_SELECTION);
+		tableProducts = new Table(sashForm, SWT.SINGLE | SWT.BORDER | SWT.FULL_SELECTION | SWT.VIRTUAL);
+		tableProducts.addListener(SWT.SetData, event -> {
+			TableItem item = (TableItem) event.item;
+			ProductRows.Row row = productRows.get(event.index);
+			item.setText(new String[] {row.getName(), row.getInstalled(), row.getLatest()});
+			item.setForeground(2, row.getState() == ProductRows.Row.State.FAILED ? display.getSystemColor(SWT.COLOR_RED)
+					: row.getState() == ProductRows.Row.State.LOADING ? display.getSystemColor(SWT.COLOR_DARK_GRAY)
+					: null);
+		});
 		tableProducts.addSelectionListener(new SelectionAdapter() {
 			@Override
 			public void widgetSelected(SelectionEvent e) {
+				ProductRows.Row row = getSelectedRow();
+				selectedProductName = row != null ? row.getName() : null;
 				if ((e.stateMask & SWT.SHIFT) != 0 && (e.stateMask & SWT.CTRL) == 0 && (e.stateMask & SWT.ALT) == 0) {
-					fillProductsAndVersions(getDeployerEngine().listProducts(), true, false);
+					fillProductsAndVersions(true, false);
 				}
 				if ((e.stateMask & SWT.SHIFT) != 0 && (e.stateMask & SWT.CTRL) != 0 && (e.stateMask & SWT.ALT) != 0) {
-					fillProductsAndVersions(getDeployerEngine().listProducts(), true, true);
+					fillProductsAndVersions(true, true);
 				}
 				refreshButtons();
 			}
@@ -398,6 +594,25 @@ public class Installer {
 		compositeButtons.setLayoutData(fd_compositeButtons);
 	}
 
+	/**
+	 * Filters product rows as the user types, the table items are not recreated.
+	 */
+	private void createTxtSearch() {
+		txtSearch = new Text(shlInstaller, SWT.SEARCH | SWT.ICON_SEARCH | SWT.ICON_CANCEL);
+		Common.resizeFonts(display, txtSearch, 12);
+		txtSearch.setMessage("Search products");
+		FormData fd_txtSearch = new FormData();
+		fd_txtSearch.top = new FormAttachment(0, 10);
+		fd_txtSearch.left = new FormAttachment(0, 10);
+		fd_txtSearch.right = new FormAttachment(compositeButtons, -10);
+		txtSearch.setLayoutData(fd_txtSearch);
+		fd_sashForm.top = new FormAttachment(txtSearch, 6);
+		txtSearch.addModifyListener(e -> {
+			productRows.setFilter(txtSearch.getText());
+			refreshTable();
+		});
+	}
+
 	private void createInstallBtnShl(String productName) {
 		shlDeployment = new Shell(shlInstaller, SWT.CLOSE | SWT.APPLICATION_MODAL);
 
@@ -442,7 +657,8 @@ public class Installer {
 		fd_cmbVersions.left = new FormAttachment(lblInstalledVersion, 13);
 		fd_cmbVersions.right = new FormAttachment(100, -10);
 		cmbVersions.setLayoutData(fd_cmbVersions);
-		List<String> versions = versionsCache.get(productName);
+		VersionIndex productVersionIndex = versionIndexes.get(productName);
+		List<String> versions = productVersionIndex.list(showHiddenVersions);
 		String[] items = versions.toArray(new String[0]);
 		version = items[0];
 		cmbVersions.setItems(items);
@@ -454,7 +670,7 @@ public class Installer {
 				version = cmbVersions.getItem(versionIndex);
 				btnInstallFromCombo.setEnabled(true);
 				if (!installedVersion.isEmpty()) {
-					if (compareTwoVersions(installedVersion, version) >= 0) {
+					if (productVersionIndex.compare(installedVersion, version) >= 0) {
 						btnInstallFromCombo.setEnabled(false);
 					}
 				}
@@ -492,7 +708,7 @@ public class Installer {
 				if (tableProducts.getSelectionIndex() == -1) {
 					return;
 				}
-				String productName = tableProducts.getItem(tableProducts.getSelectionIndex()).getText(0);
+				String productName = getSelectedRow().getName();
 
 				createInstallBtnShl(productName);
 				createBtnInstallFromCombo(productName);
@@ -518,7 +734,7 @@ public class Installer {
 				if (tableProducts.getSelectionIndex() == -1) {
 					return;
 				}
-				String productName = tableProducts.getItem(tableProducts.getSelectionIndex()).getText(0);
+				String productName = getSelectedRow().getName();
 				createMessageBox(Action.UNDEPLOY, productName, null);
 			}
 		});
@@ -530,6 +746,86 @@ public class Installer {
 		btnUninstall.setLayoutData(fd_btnUninstall);
 	}
 
+	/**
+	 * Deploys the products of the manifest chosen, same as batch command does. Products are downloaded ahead while
+	 * the previous ones are deployed.
+	 */
+	private void createBtnBatch() {
+		btnBatch = new Button(compositeButtons, SWT.NONE);
+		Common.resizeFonts(display, btnBatch, 12);
+		btnBatch.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				FileDialog dialog = new FileDialog(shlInstaller, SWT.OPEN);
+				dialog.setText("Choose products manifest");
+				String manifest = dialog.open();
+				if (manifest != null)
+					deployBatch(new File(manifest));
+			}
+		});
+		btnBatch.setText("Batch...");
+		FormData fd_btnBatch = new FormData();
+		fd_btnBatch.top = new FormAttachment(btnUninstall, 6);
+		fd_btnBatch.left = new FormAttachment(0);
+		fd_btnBatch.right = new FormAttachment(0, 100);
+		btnBatch.setLayoutData(fd_btnBatch);
+	}
+
+	private void deployBatch(File manifest) {
+		List<BatchDeploy.Item> items;
+		try {
+			items = BatchDeploy.readManifest(manifest);
+		} catch (IOException e) {
+			Common.showError(shlInstaller, "Can't read " + manifest, e);
+			return;
+		}
+		waitForJre();
+		DeployerEngine engine = getDeployerEngine();
+		BatchDeploy batchDeploy = new BatchDeploy(engine, items);
+		Progress progress = new Progress(shlInstaller, "Installing " + manifest.getName(), () -> {
+			for (int i = 0; i < items.size(); i++) {
+				BatchDeploy.Item item = items.get(i);
+				if (item.getVersion().equalsIgnoreCase(CLI.LATEST_VERSION))
+					items.set(i, new BatchDeploy.Item(item.getProduct(),
+							CLI.resolveLatestVersion(engine, item.getProduct())));
+			}
+			batchDeploy.run();
+		}, new TransferProgress());
+		if (!Common.checkError(progress, shlInstaller, "Error deploying products")) {
+			String message = String.join("\n", batchDeploy.getResultLines());
+			if (batchDeploy.isRebootNeeded())
+				Common.showWarn(shlInstaller, message + "\nReboot is needed, the rest of the manifest is not installed");
+			else if (batchDeploy.getExitCode() != 0)
+				Common.showWarn(shlInstaller, message);
+			else
+				Common.showInfo(shlInstaller, message);
+		}
+		for (BatchDeploy.Item item : items)
+			productChanged(item.getProduct());
+	}
+
+	/**
+	 * Shows timings of this session and writes them to the working folder, same as silent runs do to the result
+	 * folder.
+	 */
+	private void createBtnMetrics() {
+		btnMetrics = new Button(compositeButtons, SWT.NONE);
+		Common.resizeFonts(display, btnMetrics, 12);
+		btnMetrics.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				CLI.writeMetrics(Settings.getWorkingFolder());
+				Common.showInfo(shlInstaller, Metrics.getInstance().toString());
+			}
+		});
+		btnMetrics.setText("Metrics");
+		FormData fd_btnMetrics = new FormData();
+		fd_btnMetrics.bottom = new FormAttachment(100);
+		fd_btnMetrics.left = new FormAttachment(0);
+		fd_btnMetrics.right = new FormAttachment(0, 100);
+		btnMetrics.setLayoutData(fd_btnMetrics);
+	}
+
 	private void createMessageBox(Action actionName, String productName, String version) {
 		Shell messageShell = new Shell(shlInstaller);
 		int style = SWT.YES | SWT.NO | SWT.ICON_QUESTION;
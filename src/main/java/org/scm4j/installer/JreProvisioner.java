@@ -0,0 +1,216 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Provisions the JRE from the installer package. The first copy is made in a staging folder by parallel hardlinks or
+ * verified copies and swapped in atomically, so a half copied JRE is never taken for a complete one. The manifest
+ * written last keeps size, modification time and SHA-1 of every source file, later runs copy only the files changed
+ * in the source since then.
+ */
+public class JreProvisioner {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(JreProvisioner.class);
+	private static final String STAGING_SUFFIX = ".staging";
+	private static final String OLD_SUFFIX = ".old";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private final File source;
+	private final File target;
+
+	public JreProvisioner(File source, File target) {
+		this.source = source;
+		this.target = target;
+	}
+
+	/**
+	 * @return number of files copied, linked or deleted
+	 * @throws FileNotFoundException if there is no JRE in the source and no complete JRE in the target
+	 */
+	public synchronized int provision() throws IOException {
+		if (source.getCanonicalFile().equals(target.getCanonicalFile()))
+			return 0;
+		Properties manifest = readManifest(target);
+		if (!source.isDirectory()) {
+			if (manifest != null)
+				return 0;
+			throw new FileNotFoundException("No JRE found in " + source);
+		}
+		Map<String, File> sourceFiles = listFiles(source);
+		if (manifest == null)
+			return provisionFully(sourceFiles);
+		return sync(sourceFiles, manifest);
+	}
+
+	private int provisionFully(Map<String, File> sourceFiles) throws IOException {
+		File staging = new File(target.getPath() + STAGING_SUFFIX);
+		Properties manifest = readManifest(staging);
+		if (manifest != null) {
+			LOG.info("Completing interrupted swap of " + target);
+			swap(staging);
+			return sync(sourceFiles, manifest);
+		}
+		long start = System.currentTimeMillis();
+		FileUtils.deleteDirectory(staging);
+		manifest = new Properties();
+		transfer(sourceFiles.keySet(), sourceFiles, staging, manifest);
+		writeManifest(staging, manifest);
+		swap(staging);
+		LOG.info("JRE provisioned to " + target + ", " + sourceFiles.size() + " files in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return sourceFiles.size();
+	}
+
+	private int sync(Map<String, File> sourceFiles, Properties manifest) throws IOException {
+		List<String> changed = new ArrayList<>();
+		for (Map.Entry<String, File> sourceFile : sourceFiles.entrySet()) {
+			String entry = manifest.getProperty(sourceFile.getKey());
+			File targetFile = new File(target, sourceFile.getKey());
+			if (entry == null || !entry.startsWith(toStamp(sourceFile.getValue()) + ',')
+					|| targetFile.length() != sourceFile.getValue().length())
+				changed.add(sourceFile.getKey());
+		}
+		List<String> removed = new ArrayList<>();
+		for (String path : manifest.stringPropertyNames()) {
+			if (!sourceFiles.containsKey(path))
+				removed.add(path);
+		}
+		if (changed.isEmpty() && removed.isEmpty())
+			return 0;
+		try {
+			transfer(changed, sourceFiles, target, manifest);
+			for (String path : removed) {
+				FileUtils.deleteQuietly(new File(target, path));
+				manifest.remove(path);
+			}
+		} finally {
+			// files done are not copied again if some failed
+			writeManifest(target, manifest);
+		}
+		LOG.info("JRE in " + target + " synced, " + changed.size() + " files updated, " + removed.size()
+				+ " removed");
+		return changed.size() + removed.size();
+	}
+
+	/**
+	 * Links or copies the files in parallel, each copy is verified and renamed to its name only then.
+	 */
+	private void transfer(Collection<String> paths, Map<String, File> sourceFiles, File folder, Properties manifest)
+			throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(Settings.JRE_COPY_THREADS,
+				CatalogLoader.daemonThreads("jre-copy"));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (String path : paths) {
+				futures.add(executor.submit(() -> {
+					File sourceFile = sourceFiles.get(path);
+					String stamp = toStamp(sourceFile);
+					String sha1 = Checksums.hash(sourceFile, Checksums.SHA1);
+					File targetFile = new File(folder, path);
+					File tmpFile = new File(targetFile.getPath() + TMP_SUFFIX);
+					FileUtils.forceMkdir(targetFile.getParentFile());
+					Files.deleteIfExists(tmpFile.toPath());
+					try {
+						Files.createLink(tmpFile.toPath(), sourceFile.toPath());
+					} catch (IOException | UnsupportedOperationException e) {
+						Files.copy(sourceFile.toPath(), tmpFile.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+						if (!Checksums.hash(tmpFile, Checksums.SHA1).equals(sha1)) {
+							Files.deleteIfExists(tmpFile.toPath());
+							throw new IOException("Copy of " + sourceFile + " does not match its SHA-1");
+						}
+					}
+					Files.move(tmpFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+					manifest.setProperty(path, stamp + ',' + sha1);
+					return null;
+				}));
+			}
+			IOException exception = null;
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (exception == null)
+						exception = e.getCause() instanceof IOException ? (IOException) e.getCause()
+								: new IOException(e.getCause());
+				}
+			}
+			if (exception != null)
+				throw exception;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted provisioning JRE to " + target);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void swap(File staging) throws IOException {
+		File old = new File(target.getPath() + OLD_SUFFIX);
+		FileUtils.deleteDirectory(old);
+		if (target.exists())
+			Files.move(target.toPath(), old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		Files.move(staging.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		FileUtils.deleteQuietly(old);
+	}
+
+	private static Map<String, File> listFiles(File folder) throws IOException {
+		Map<String, File> res = new TreeMap<>();
+		Path root = folder.toPath();
+		try (Stream<Path> paths = Files.walk(root)) {
+			paths.filter(Files::isRegularFile)
+					.forEach(path -> res.put(root.relativize(path).toString().replace('\\', '/'), path.toFile()));
+		}
+		return res;
+	}
+
+	private static String toStamp(File file) {
+		return file.length() + "," + file.lastModified();
+	}
+
+	/**
+	 * @return manifest of the complete JRE in the folder or null if there is no complete JRE
+	 */
+	private static Properties readManifest(File folder) throws IOException {
+		File manifestFile = new File(folder, Settings.JRE_MANIFEST_FILE_NAME);
+		if (!manifestFile.exists())
+			return null;
+		Properties manifest = new Properties();
+		try (InputStream in = Files.newInputStream(manifestFile.toPath())) {
+			manifest.load(in);
+		}
+		return manifest;
+	}
+
+	private static void writeManifest(File folder, Properties manifest) throws IOException {
+		File manifestFile = new File(folder, Settings.JRE_MANIFEST_FILE_NAME);
+		File tmpFile = new File(manifestFile.getPath() + TMP_SUFFIX);
+		try (OutputStream out = Files.newOutputStream(tmpFile.toPath())) {
+			manifest.store(out, "size,modified,sha1 of the source files");
+		}
+		Files.move(tmpFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+}
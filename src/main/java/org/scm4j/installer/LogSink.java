@@ -0,0 +1,207 @@
+package org.scm4j.installer;
+
+import org.slf4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Captures the deployer output. Bytes are decoded in bulk, status lines are passed to the listener and all the
+ * output goes through a bounded ring buffer to a background thread which appends it to the log file.
+ */
+public class LogSink extends OutputStream {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(LogSink.class);
+	private static final int STATUS_PREFIX_LENGTH = 15;
+	private static final int MAX_LINE_LENGTH = 4096;
+
+	private final Consumer<String> statusListener;
+	private final CharsetDecoder decoder;
+	private final ByteBuffer bytes = ByteBuffer.allocate(8192);
+	private final CharBuffer chars = CharBuffer.allocate(8192);
+	private final StringBuilder line = new StringBuilder();
+	private final byte[] singleByte = new byte[1];
+
+	private final char[] ring;
+	private int head;
+	private int size;
+	private boolean closed;
+	private boolean failed;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Thread writerThread;
+
+	public LogSink(File logFile, Charset charset, Consumer<String> statusListener) {
+		this.statusListener = statusListener;
+		decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ring = new char[Settings.LOG_BUFFER_SIZE];
+		writerThread = new Thread(() -> drain(logFile), "log-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	@Override
+	public synchronized void write(int b) throws IOException {
+		singleByte[0] = (byte) b;
+		write(singleByte, 0, 1);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, bytes.remaining());
+			bytes.put(b, off, n);
+			off += n;
+			len -= n;
+			bytes.flip();
+			decoder.decode(bytes, chars, false);
+			bytes.compact();
+			flushChars();
+		}
+	}
+
+	/**
+	 * Flushes the rest of the output and waits for the log file to be written.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		bytes.flip();
+		decoder.decode(bytes, chars, true);
+		decoder.flush(chars);
+		bytes.clear();
+		flushChars();
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void flushChars() {
+		chars.flip();
+		char[] array = chars.array();
+		int end = chars.limit();
+		for (int i = 0; i < end; i++) {
+			char c = array[i];
+			if (c == '\n') {
+				if (isStatusLine(line))
+					statusListener.accept(line.substring(STATUS_PREFIX_LENGTH).trim());
+				line.setLength(0);
+			} else if (line.length() < MAX_LINE_LENGTH) {
+				line.append(c);
+			}
+		}
+		enqueue(array, end);
+		chars.clear();
+	}
+
+	/**
+	 * Status lines are the log lines starting with time, like "12-30-45.123 ...".
+	 */
+	static boolean isStatusLine(CharSequence line) {
+		if (line.length() <= STATUS_PREFIX_LENGTH)
+			return false;
+		for (int i = 0; i < 8; i++) {
+			char c = line.charAt(i);
+			if (i % 3 == 2 ? c != '-' : c < '0' || c > '9')
+				return false;
+		}
+		return true;
+	}
+
+	private void enqueue(char[] src, int len) {
+		int off = 0;
+		lock.lock();
+		try {
+			while (off < len) {
+				while (size == ring.length && !failed)
+					notFull.awaitUninterruptibly();
+				// output is dropped once the log file can't be written
+				if (failed)
+					return;
+				int tail = (head + size) % ring.length;
+				int n = Math.min(len - off, Math.min(ring.length - size, ring.length - tail));
+				System.arraycopy(src, off, ring, tail, n);
+				size += n;
+				off += n;
+				notEmpty.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void drain(File logFile) {
+		char[] chunk = new char[ring.length];
+		logFile.getParentFile().mkdirs();
+		try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		     Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(),
+				     Settings.COPY_BUFFER_SIZE))) {
+			while (true) {
+				int n;
+				lock.lock();
+				try {
+					while (size == 0 && !closed)
+						notEmpty.awaitUninterruptibly();
+					if (size == 0)
+						break;
+					n = Math.min(size, ring.length - head);
+					System.arraycopy(ring, head, chunk, 0, n);
+					head = (head + n) % ring.length;
+					size -= n;
+					notFull.signal();
+				} finally {
+					lock.unlock();
+				}
+				writer.write(chunk, 0, n);
+				if (isEmpty())
+					writer.flush();
+			}
+		} catch (IOException e) {
+			LOG.warn("Error writing log file " + logFile + ": " + e.toString());
+			lock.lock();
+			try {
+				failed = true;
+				size = 0;
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private boolean isEmpty() {
+		lock.lock();
+		try {
+			return size == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package org.scm4j.installer;
+
+/**
+ * Entry point of the jar and the exe. Command line runs go to {@link CLI} and load no SWT classes, the product window
+ * is opened only if there are no arguments.
+ */
+public final class Main {
+
+	private Main() {
+	}
+
+	public static void main(String[] args) {
+		if (args.length > 0)
+			CLI.main(args);
+		else
+			Installer.main(args);
+	}
+}
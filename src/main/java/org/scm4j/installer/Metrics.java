@@ -0,0 +1,309 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.FileUtils;
+import org.scm4j.deployer.api.DeploymentResult;
+import org.scm4j.deployer.engine.DeployerEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Timings of the installer phases and of the artifact downloads of this process. They are written as metrics.json to
+ * the result folder of silent runs, so runs of different terminals can be compared, and shown by the GUI.
+ */
+public class Metrics {
+
+	public static final String RESULT_OK = "ok";
+	public static final String RESULT_ERROR = "error";
+	private static Metrics instance;
+
+	private long startedAt = System.currentTimeMillis();
+	private final List<Phase> phases = new ArrayList<>();
+	private final Map<String, Download> downloads = new LinkedHashMap<>();
+
+	public static synchronized Metrics getInstance() {
+		if (instance == null)
+			instance = new Metrics();
+		return instance;
+	}
+
+	/**
+	 * Starts timing the phase, it is recorded on {@link Timer#close()} with "error" result unless another result is
+	 * set.
+	 */
+	public Timer time(String name, String detail) {
+		return new Timer(name, detail);
+	}
+
+	/**
+	 * Times the call as the phase.
+	 */
+	public <T> T time(String name, String detail, Supplier<T> call) {
+		try (Timer timer = time(name, detail)) {
+			T res = call.get();
+			timer.done();
+			return res;
+		}
+	}
+
+	public void time(String name, String detail, Runnable call) {
+		try (Timer timer = time(name, detail)) {
+			call.run();
+			timer.done();
+		}
+	}
+
+	/**
+	 * Times the download holding the product lock, waiting for the lock is not included. The artifacts downloaded
+	 * are linked to the blob store then.
+	 */
+	@SuppressWarnings("try")
+	public void timeDownload(DeployerEngine deployerEngine, String product, String version) {
+		try (FileLocks.Handle lock = FileLocks.lockProduct(product)) {
+			try (Timer timer = time("download", product + ' ' + version)) {
+				deployerEngine.download(product, version);
+				timer.done();
+			}
+			BlobStore.linkEngineRepository();
+		}
+	}
+
+	/**
+	 * Times the deploy holding the product lock recording its result, waiting for the lock is not included. The
+	 * artifacts downloaded for the deploy are linked to the blob store then.
+	 */
+	@SuppressWarnings("try")
+	public DeploymentResult timeDeploy(DeployerEngine deployerEngine, String product, String version) {
+		try (FileLocks.Handle lock = FileLocks.lockProduct(product)) {
+			DeploymentResult result;
+			try (Timer timer = time(version.isEmpty() ? "undeploy" : "deploy", product + ' ' + version)) {
+				result = deployerEngine.deploy(product, version);
+				timer.setResult(result.name());
+			}
+			if (!version.isEmpty())
+				BlobStore.linkEngineRepository();
+			return result;
+		}
+	}
+
+	/**
+	 * Records bytes of the artifact received from the mirror.
+	 */
+	public synchronized void recordTransfer(String artifact, String mirror, long bytes) {
+		Download download = downloads.computeIfAbsent(artifact, Download::new);
+		download.mirrors.add(mirror);
+		download.transferred += bytes;
+	}
+
+	/**
+	 * Records the artifact fetched either from the mirrors or from the blob store if it is cached.
+	 */
+	public synchronized void recordDownload(String artifact, long bytes, long millis, boolean cached) {
+		Download download = downloads.computeIfAbsent(artifact, Download::new);
+		download.bytes = bytes;
+		download.millis += millis;
+		download.cached = cached;
+	}
+
+	public synchronized boolean isEmpty() {
+		return phases.isEmpty() && downloads.isEmpty();
+	}
+
+	/**
+	 * Forgets everything recorded, used by long running processes between commands.
+	 */
+	public synchronized void reset() {
+		startedAt = System.currentTimeMillis();
+		phases.clear();
+		downloads.clear();
+	}
+
+	/**
+	 * Records the phase which has just ended and was not timed.
+	 */
+	public void record(String name, String detail, long millis, String result) {
+		Phase phase = new Phase(name, detail, System.currentTimeMillis() - millis);
+		phase.millis = millis;
+		phase.result = result;
+		add(phase);
+		EventLog.getInstance().phaseEnded(name, detail, millis, result);
+	}
+
+	private synchronized void add(Phase phase) {
+		phases.add(phase);
+	}
+
+	public synchronized String toJson() {
+		StringBuilder sb = new StringBuilder("{\n");
+		sb.append("  \"startedAt\": ").append(quote(Instant.ofEpochMilli(startedAt).toString())).append(",\n");
+		sb.append("  \"millis\": ").append(System.currentTimeMillis() - startedAt).append(",\n");
+		sb.append("  \"phases\": [");
+		for (int i = 0; i < phases.size(); i++) {
+			Phase phase = phases.get(i);
+			sb.append(i == 0 ? "\n" : ",\n").append("    {\"name\": ").append(quote(phase.name))
+					.append(", \"detail\": ").append(quote(phase.detail))
+					.append(", \"startMillis\": ").append(phase.start - startedAt)
+					.append(", \"millis\": ").append(phase.millis)
+					.append(", \"result\": ").append(quote(phase.result)).append('}');
+		}
+		sb.append(phases.isEmpty() ? "],\n" : "\n  ],\n");
+		sb.append("  \"downloads\": [");
+		int i = 0;
+		for (Download download : downloads.values()) {
+			sb.append(i++ == 0 ? "\n" : ",\n").append("    {\"artifact\": ").append(quote(download.artifact))
+					.append(", \"bytes\": ").append(download.bytes)
+					.append(", \"transferred\": ").append(download.transferred)
+					.append(", \"millis\": ").append(download.millis)
+					.append(", \"cached\": ").append(download.cached)
+					.append(", \"mirrors\": [");
+			int j = 0;
+			for (String mirror : download.mirrors)
+				sb.append(j++ == 0 ? "" : ", ").append(quote(mirror));
+			sb.append("]}");
+		}
+		sb.append(downloads.isEmpty() ? "]\n" : "\n  ]\n");
+		return sb.append("}\n").toString();
+	}
+
+	static String quote(String value) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Writes the metrics atomically as JSON.
+	 */
+	public void writeTo(File file) throws IOException {
+		FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tmpFile.toPath())) {
+			out.write(toJson().getBytes(StandardCharsets.UTF_8));
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return summary for people, phases repeated many times are summed up
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		Map<String, List<Phase>> byName = new LinkedHashMap<>();
+		for (Phase phase : phases)
+			byName.computeIfAbsent(phase.name, name -> new ArrayList<>()).add(phase);
+		for (Map.Entry<String, List<Phase>> entry : byName.entrySet()) {
+			List<Phase> named = entry.getValue();
+			Phase longest = named.get(0);
+			long total = 0;
+			int failed = 0;
+			for (Phase phase : named) {
+				total += phase.millis;
+				if (phase.millis > longest.millis)
+					longest = phase;
+				if (phase.result.equals(RESULT_ERROR))
+					failed++;
+			}
+			sb.append(entry.getKey());
+			if (named.size() == 1) {
+				if (!longest.detail.isEmpty())
+					sb.append(' ').append(longest.detail);
+				sb.append(": ").append(total).append(" ms");
+				if (!longest.result.equals(RESULT_OK))
+					sb.append(", ").append(longest.result);
+			} else {
+				sb.append(": ").append(named.size()).append(" times, ").append(total).append(" ms, longest ")
+						.append(longest.millis).append(" ms ").append(longest.detail);
+				if (failed > 0)
+					sb.append(", ").append(failed).append(" failed");
+			}
+			sb.append('\n');
+		}
+		long bytes = 0;
+		long millis = 0;
+		int cached = 0;
+		for (Download download : downloads.values()) {
+			bytes += download.transferred;
+			millis += download.millis;
+			if (download.cached)
+				cached++;
+		}
+		sb.append(downloads.size()).append(" artifacts, ").append(cached).append(" from blob store, ")
+				.append(TransferProgress.formatBytes(bytes)).append(" downloaded in ").append(millis).append(" ms");
+		return sb.toString();
+	}
+
+	public class Timer implements AutoCloseable {
+
+		private final Phase phase;
+
+		private Timer(String name, String detail) {
+			phase = new Phase(name, detail == null ? "" : detail, System.currentTimeMillis());
+			EventLog.getInstance().phaseStarted(phase.name, phase.detail);
+		}
+
+		public void setResult(String result) {
+			phase.result = result;
+		}
+
+		public void done() {
+			setResult(RESULT_OK);
+		}
+
+		@Override
+		public void close() {
+			phase.millis = System.currentTimeMillis() - phase.start;
+			add(phase);
+			EventLog.getInstance().phaseEnded(phase.name, phase.detail, phase.millis, phase.result);
+		}
+	}
+
+	private static class Phase {
+
+		private final String name;
+		private final String detail;
+		private final long start;
+		private long millis;
+		private String result = RESULT_ERROR;
+
+		private Phase(String name, String detail, long start) {
+			this.name = name;
+			this.detail = detail;
+			this.start = start;
+		}
+	}
+
+	private static class Download {
+
+		private final String artifact;
+		private final Set<String> mirrors = new LinkedHashSet<>();
+		private long bytes;
+		private long transferred;
+		private long millis;
+		private boolean cached;
+
+		private Download(String artifact) {
+			this.artifact = artifact;
+		}
+	}
+}
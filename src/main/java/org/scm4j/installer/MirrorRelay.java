@@ -0,0 +1,373 @@
+package org.scm4j.installer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP relay between {@link org.scm4j.deployer.engine.DeployerEngine} and the artifact mirrors. Every request
+ * of the engine is routed to the healthiest mirror chosen by {@link MirrorSelector}, artifacts are downloaded by
+ * {@link ArtifactDownloader} first. Released artifacts imported from an {@link OfflineBundle} are answered from the
+ * offline folder without going to the mirrors, the rest of the offline folder is used only if the mirrors fail.
+ */
+public class MirrorRelay {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(MirrorRelay.class);
+	private static final String CONTEXT = "/repo";
+	private static final String STATUS_CONTEXT = "/status";
+	private static final String STATUS = "scm4j-installer relay";
+	private static final List<String> FORWARDED_REQUEST_HEADERS = Arrays.asList("If-None-Match",
+			"If-Modified-Since", "Range", "Accept", "User-Agent");
+	private static final List<String> FORWARDED_RESPONSE_HEADERS = Arrays.asList("Content-Type", "ETag",
+			"Last-Modified", "Accept-Ranges", "Content-Range", "X-Checksum-Sha1", "X-Checksum-Md5");
+	private static MirrorRelay instance;
+
+	private final MirrorSelector selector;
+	private final ArtifactDownloader downloader;
+	private HttpServer server;
+	private String url;
+	private volatile TransferProgress transferProgress;
+	private volatile BandwidthLimiter bandwidthLimiter;
+	private volatile OfflineBundle.Recording recording;
+
+	public MirrorRelay(MirrorSelector selector) {
+		this(selector, new ArtifactDownloader(selector, Settings.getDownloadsFolder(), BlobStore.getInstance()));
+	}
+
+	public MirrorRelay(MirrorSelector selector, ArtifactDownloader downloader) {
+		this.selector = selector;
+		this.downloader = downloader;
+	}
+
+	public static synchronized MirrorRelay getInstance() {
+		if (instance == null) {
+			instance = new MirrorRelay(new MirrorSelector(Arrays.asList(Settings.PRODUCT_LIST_URL_1,
+					Settings.PRODUCT_LIST_URL_2)));
+			instance.start(0);
+		}
+		return instance;
+	}
+
+	/**
+	 * @return urls to pass to the engine: the relay if it is running, ranked mirrors otherwise
+	 */
+	public String[] getRepositoryUrls() {
+		if (url != null)
+			return new String[] {url};
+		return selector.rank(false).stream().map(MirrorSelector.Mirror::getUrl).toArray(String[]::new);
+	}
+
+	public MirrorSelector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * @param transferProgress counters of the artifacts relayed from now on, null to stop counting
+	 */
+	public void setTransferProgress(TransferProgress transferProgress) {
+		this.transferProgress = transferProgress;
+	}
+
+	/**
+	 * @param bandwidthLimiter limit of the total rate of the artifacts relayed, null for no limit
+	 */
+	public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+		this.bandwidthLimiter = bandwidthLimiter;
+	}
+
+	/**
+	 * @param recording responses to record from now on, null to stop recording. Conditional and range requests are
+	 *                  answered in full while recording.
+	 */
+	void setRecording(OfflineBundle.Recording recording) {
+		this.recording = recording;
+	}
+
+	/**
+	 * @return false if the relay could not be started and the engine goes to the mirrors directly
+	 */
+	boolean isStarted() {
+		return server != null;
+	}
+
+	/**
+	 * Starts the relay on the given port of the loopback interface, 0 for an ephemeral port. A relay is never shared
+	 * with other processes: whatever listens on a port can't be trusted to serve the artifacts deployed. If the port
+	 * can't be bound the engine will go to the mirrors directly.
+	 */
+	public void start(int port) {
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		try {
+			server = HttpServer.create(address, 0);
+		} catch (IOException e) {
+			LOG.warn("Can't start relay on port " + port + ", going to mirrors directly: " + e.toString());
+			return;
+		}
+		server.createContext(CONTEXT, this::handle);
+		server.createContext(STATUS_CONTEXT, this::status);
+		server.setExecutor(Executors.newCachedThreadPool(CatalogLoader.daemonThreads("relay")));
+		// threads inherit daemon flag, so the server dispatcher will not keep JVM alive
+		Thread starter = new Thread(server::start);
+		starter.setDaemon(true);
+		starter.start();
+		try {
+			starter.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		url = "http://" + address.getHostString() + ':' + server.getAddress().getPort() + CONTEXT;
+		LOG.info("Relay started at " + url);
+	}
+
+	public void stop() {
+		if (server != null)
+			server.stop(0);
+		server = null;
+		url = null;
+	}
+
+	private void status(HttpExchange exchange) throws IOException {
+		StringBuilder sb = new StringBuilder(STATUS).append('\n');
+		for (MirrorSelector.Mirror mirror : selector.getMirrors())
+			sb.append(mirror).append('\n');
+		byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			String path = exchange.getRequestURI().getRawPath().substring(CONTEXT.length());
+			while (path.startsWith("/"))
+				path = path.substring(1);
+			if (!method.equals("GET") && !method.equals("HEAD")) {
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+				return;
+			}
+			OfflineBundle.Recording recording = this.recording;
+			if (isImmutable(path) && serveOffline(exchange, path, method, recording, false))
+				return;
+			Map<String, String> headers = new HashMap<>();
+			for (String header : FORWARDED_REQUEST_HEADERS) {
+				String value = exchange.getRequestHeaders().getFirst(header);
+				if (value != null)
+					headers.put(header, value);
+			}
+			if (recording != null)
+				headers.keySet().removeAll(Arrays.asList("Range", "If-None-Match", "If-Modified-Since"));
+			try {
+				if (isMetadata(path) || method.equals("HEAD"))
+					relayMetadata(exchange, path, method, headers, recording);
+				else if (headers.containsKey("Range") || headers.containsKey("If-None-Match")
+						|| headers.containsKey("If-Modified-Since"))
+					relayArtifact(exchange, path, headers);
+				else
+					downloadArtifact(exchange, path, recording);
+			} catch (IOException e) {
+				// nothing is sent yet
+				if (exchange.getResponseCode() == -1 && serveOffline(exchange, path, method, recording, true)) {
+					LOG.warn("Mirrors failed, " + path + " is taken from offline folder: " + e.toString());
+					return;
+				}
+				throw e;
+			}
+		} catch (IOException e) {
+			LOG.warn("Error relaying " + exchange.getRequestURI() + ": " + e.toString());
+			try {
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_GATEWAY, -1);
+			} catch (IOException ignored) {
+				// headers are already sent, the client will see broken body
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	static boolean isMetadata(String path) {
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		return name.startsWith("maven-metadata") || name.endsWith(".sha1") || name.endsWith(".md5")
+				|| name.endsWith(".pom") || name.endsWith(".yml") || name.endsWith(".yaml");
+	}
+
+	/**
+	 * @return true for artifacts of released versions, they never change once published
+	 */
+	static boolean isImmutable(String path) {
+		return !isMetadata(path) && !path.contains("-SNAPSHOT");
+	}
+
+	/**
+	 * Answers from the offline folder imported from a bundle, the answer is recorded while exporting. Paths known to
+	 * be missing are answered only if the mirrors failed, an artifact may be published since the bundle export.
+	 *
+	 * @param mirrorsFailed true if the mirrors failed to answer
+	 * @return false if the offline folder has no answer for the path
+	 */
+	private boolean serveOffline(HttpExchange exchange, String path, String method, OfflineBundle.Recording recording,
+			boolean mirrorsFailed) throws IOException {
+		if (path.contains(".."))
+			return false;
+		File file = new File(Settings.getOfflineFolder(), path);
+		if (!file.isFile()) {
+			if (!mirrorsFailed || !new File(file.getPath() + OfflineBundle.MISSING_EXTENSION).isFile())
+				return false;
+			if (recording != null)
+				recording.missing(path);
+			exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+			return true;
+		}
+		if (recording != null && method.equals("GET")) {
+			if (isMetadata(path))
+				recording.metadata(path, Files.readAllBytes(file.toPath()));
+			else
+				recording.artifact(path, file, Checksums.hash(file, Checksums.SHA1));
+		}
+		if (method.equals("HEAD")) {
+			exchange.getResponseHeaders().set("Content-Length", Long.toString(file.length()));
+			exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+			return true;
+		}
+		exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, file.length());
+		try (OutputStream out = exchange.getResponseBody()) {
+			Files.copy(file.toPath(), out);
+		}
+		LOG.debug(path + " is taken from offline folder");
+		return true;
+	}
+
+	private void relayMetadata(HttpExchange exchange, String path, String method, Map<String, String> headers,
+			OfflineBundle.Recording recording) throws IOException {
+		MirrorSelector.Response response = selector.fetch(path, method, headers);
+		if (recording != null && method.equals("GET")) {
+			if (response.getCode() == HttpURLConnection.HTTP_OK)
+				recording.metadata(path, response.getBody());
+			else if (response.getCode() == HttpURLConnection.HTTP_NOT_FOUND)
+				recording.missing(path);
+		}
+		for (String header : FORWARDED_RESPONSE_HEADERS) {
+			String value = response.getHeader(header);
+			if (value != null)
+				exchange.getResponseHeaders().set(header, value);
+		}
+		byte[] body = response.getBody();
+		boolean noBody = method.equals("HEAD") || body.length == 0;
+		exchange.sendResponseHeaders(response.getCode(), noBody ? -1 : body.length);
+		if (!noBody) {
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+
+	/**
+	 * Downloads the artifact, resuming and verifying it, and sends it to the engine by {@link ArtifactStream} while
+	 * it is downloaded, so the engine never gets a complete broken artifact.
+	 */
+	private void downloadArtifact(HttpExchange exchange, String path, OfflineBundle.Recording recording)
+			throws IOException {
+		ArtifactStream stream = new ArtifactStream(exchange);
+		File file;
+		try {
+			file = downloader.download(path, transferProgress, bandwidthLimiter, stream);
+		} catch (FileNotFoundException e) {
+			if (recording != null)
+				recording.missing(path);
+			exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+			return;
+		}
+		if (recording != null)
+			// blobs are named by their SHA-1
+			recording.artifact(path, file, file.getName());
+		stream.finish(file);
+	}
+
+	/**
+	 * Streams conditional and range requests of the engine as is.
+	 */
+	private void relayArtifact(HttpExchange exchange, String path, Map<String, String> headers) throws IOException {
+		IOException lastException = null;
+		for (MirrorSelector.Mirror mirror : selector.rank(true)) {
+			long start = System.nanoTime();
+			HttpURLConnection conn = null;
+			try {
+				conn = MirrorSelector.open(mirror, path, "GET", headers);
+				int code = conn.getResponseCode();
+				if (code >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+					throw new IOException("Response " + code + " from " + mirror.getUrl());
+				long latency = System.nanoTime() - start;
+				if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+					mirror.recordSuccess(latency, 0, 0);
+					exchange.sendResponseHeaders(code, -1);
+					return;
+				}
+				for (String header : FORWARDED_RESPONSE_HEADERS) {
+					String value = conn.getHeaderField(header);
+					if (value != null)
+						exchange.getResponseHeaders().set(header, value);
+				}
+				if (code == HttpURLConnection.HTTP_NOT_MODIFIED || code == HttpURLConnection.HTTP_NO_CONTENT) {
+					mirror.recordSuccess(latency, 0, 0);
+					exchange.sendResponseHeaders(code, -1);
+					return;
+				}
+				long length = conn.getContentLengthLong();
+				exchange.sendResponseHeaders(code, length < 0 ? 0 : length);
+				TransferProgress progress = transferProgress;
+				BandwidthLimiter limiter = bandwidthLimiter;
+				if (progress != null)
+					progress.started(path, length);
+				long bytes = 0;
+				try (InputStream in = conn.getInputStream(); OutputStream out = exchange.getResponseBody()) {
+					byte[] buffer = new byte[Settings.COPY_BUFFER_SIZE];
+					int n;
+					while ((n = in.read(buffer)) != -1) {
+						if (limiter != null)
+							limiter.acquire(n);
+						out.write(buffer, 0, n);
+						bytes += n;
+						if (progress != null)
+							progress.transferred(path, n);
+					}
+				}
+				if (progress != null)
+					progress.completed(path);
+				mirror.recordSuccess(latency, bytes, System.nanoTime() - start - latency);
+				LOG.debug(path + " relayed from " + mirror.getUrl());
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted getting " + path);
+			} catch (IOException e) {
+				mirror.recordError();
+				LOG.warn("Error getting " + path + " from " + mirror.getUrl() + ": " + e.toString());
+				if (exchange.getResponseCode() != -1)
+					throw e;
+				lastException = e;
+			} finally {
+				if (conn != null)
+					conn.disconnect();
+			}
+		}
+		throw lastException != null ? lastException : new IOException("No mirrors to get " + path);
+	}
+}
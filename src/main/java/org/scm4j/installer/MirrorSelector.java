@@ -0,0 +1,241 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps rolling latency, throughput and error statistics per mirror and ranks mirrors by them. Metadata requests
+ * are hedged: if the best mirror does not answer within the hedge delay the request is also sent to the next one
+ * and the first answer wins.
+ */
+public class MirrorSelector {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(MirrorSelector.class);
+	private static final double SMOOTHING = 0.3;
+	private static final long ERROR_PENALTY_MILLIS = 5000;
+	private static final long ERROR_RECOVERY_MILLIS = 60000;
+	private static final long ARTIFACT_SIZE_HINT = 1024 * 1024;
+
+	private final List<Mirror> mirrors;
+	private final ExecutorService hedgeExecutor = Executors.newCachedThreadPool(
+			CatalogLoader.daemonThreads("mirror-hedge"));
+
+	public MirrorSelector(List<String> urls) {
+		mirrors = urls.stream().map(Mirror::new).collect(Collectors.toList());
+	}
+
+	public List<Mirror> getMirrors() {
+		return mirrors;
+	}
+
+	/**
+	 * @param artifact rank by expected transfer time of an artifact rather than by latency only
+	 * @return mirrors, the healthiest first
+	 */
+	public List<Mirror> rank(boolean artifact) {
+		long now = System.currentTimeMillis();
+		List<Mirror> res = new ArrayList<>(mirrors);
+		res.sort(Comparator.comparingDouble(mirror -> mirror.score(artifact, now)));
+		return res;
+	}
+
+	/**
+	 * Fetches a small resource completely, hedging the request to the next mirror if the best one is slow.
+	 *
+	 * @throws IOException if no mirror answered
+	 */
+	public Response fetch(String path, String method, Map<String, String> headers) throws IOException {
+		List<Mirror> ranked = rank(false);
+		CompletionService<Response> completionService = new ExecutorCompletionService<>(hedgeExecutor);
+		List<Future<Response>> futures = new ArrayList<>();
+		IOException lastException = null;
+		int next = 0;
+		int pending = 0;
+		try {
+			while (true) {
+				if (pending == 0) {
+					if (next == ranked.size())
+						break;
+					Mirror mirror = ranked.get(next++);
+					futures.add(completionService.submit(() -> fetch(mirror, path, method, headers)));
+					pending++;
+				}
+				Future<Response> done;
+				if (next < ranked.size()) {
+					done = completionService.poll(ranked.get(next - 1).getHedgeDelay(), TimeUnit.MILLISECONDS);
+					if (done == null) {
+						Mirror mirror = ranked.get(next++);
+						LOG.debug("Hedging " + path + " to " + mirror.getUrl());
+						futures.add(completionService.submit(() -> fetch(mirror, path, method, headers)));
+						pending++;
+						continue;
+					}
+				} else {
+					done = completionService.take();
+				}
+				pending--;
+				try {
+					return done.get();
+				} catch (ExecutionException e) {
+					lastException = e.getCause() instanceof IOException ? (IOException) e.getCause()
+							: new IOException(e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted fetching " + path);
+		} finally {
+			for (Future<Response> future : futures)
+				future.cancel(true);
+		}
+		throw lastException != null ? lastException : new IOException("No mirrors to fetch " + path);
+	}
+
+	private Response fetch(Mirror mirror, String path, String method, Map<String, String> headers)
+			throws IOException {
+		long start = System.nanoTime();
+		HttpURLConnection conn = open(mirror, path, method, headers);
+		try {
+			int code = conn.getResponseCode();
+			if (code >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+				throw new IOException("Response " + code + " from " + mirror.getUrl());
+			long latency = System.nanoTime() - start;
+			byte[] body;
+			try (InputStream in = code < HttpURLConnection.HTTP_BAD_REQUEST ? conn.getInputStream()
+					: conn.getErrorStream()) {
+				body = in == null ? new byte[0] : IOUtils.toByteArray(in);
+			}
+			mirror.recordSuccess(latency, body.length, System.nanoTime() - start - latency);
+			return new Response(mirror, code, conn.getHeaderFields(), body);
+		} catch (IOException e) {
+			mirror.recordError();
+			LOG.warn("Error fetching " + path + " from " + mirror.getUrl() + ": " + e.toString());
+			throw e;
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	public static HttpURLConnection open(Mirror mirror, String path, String method, Map<String, String> headers)
+			throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(mirror.getUrl() + '/' + path).openConnection();
+		conn.setRequestMethod(method);
+		conn.setConnectTimeout(Settings.HTTP_TIMEOUT_MILLIS);
+		conn.setReadTimeout(Settings.HTTP_TIMEOUT_MILLIS);
+		conn.setInstanceFollowRedirects(true);
+		for (Map.Entry<String, String> header : headers.entrySet())
+			conn.setRequestProperty(header.getKey(), header.getValue());
+		return conn;
+	}
+
+	public static class Mirror {
+
+		private final String url;
+		private double latencyMillis;
+		private double bytesPerMilli;
+		private double errorRate;
+		private long lastErrorTime;
+		private long requests;
+		private long errors;
+
+		Mirror(String url) {
+			this.url = url;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public synchronized void recordSuccess(long latencyNanos, long bytes, long transferNanos) {
+			double latency = TimeUnit.NANOSECONDS.toMicros(latencyNanos) / 1000.0;
+			latencyMillis = requests == 0 ? latency : latencyMillis + SMOOTHING * (latency - latencyMillis);
+			if (bytes >= ARTIFACT_SIZE_HINT / 16 && transferNanos > 0) {
+				double rate = bytes / (TimeUnit.NANOSECONDS.toMicros(transferNanos) / 1000.0 + 1);
+				bytesPerMilli = bytesPerMilli == 0 ? rate : bytesPerMilli + SMOOTHING * (rate - bytesPerMilli);
+			}
+			errorRate -= SMOOTHING * errorRate;
+			requests++;
+		}
+
+		public synchronized void recordError() {
+			errorRate += SMOOTHING * (1 - errorRate);
+			lastErrorTime = System.currentTimeMillis();
+			requests++;
+			errors++;
+		}
+
+		synchronized double score(boolean artifact, long now) {
+			double recentErrorRate = errorRate * Math.exp(-(double) (now - lastErrorTime) / ERROR_RECOVERY_MILLIS);
+			double score = latencyMillis + recentErrorRate * ERROR_PENALTY_MILLIS;
+			if (artifact && bytesPerMilli > 0)
+				score += ARTIFACT_SIZE_HINT / bytesPerMilli;
+			return score;
+		}
+
+		synchronized long getHedgeDelay() {
+			return Math.max(Settings.HEDGE_DELAY_MILLIS, (long) (2 * latencyMillis));
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("%s latency %.0f ms, throughput %.0f KB/s, errors %d of %d requests", url,
+					latencyMillis, bytesPerMilli * 1000 / 1024, errors, requests);
+		}
+	}
+
+	public static class Response {
+
+		private final Mirror mirror;
+		private final int code;
+		private final Map<String, List<String>> headers;
+		private final byte[] body;
+
+		Response(Mirror mirror, int code, Map<String, List<String>> headers, byte[] body) {
+			this.mirror = mirror;
+			this.code = code;
+			this.headers = headers;
+			this.body = body;
+		}
+
+		public Mirror getMirror() {
+			return mirror;
+		}
+
+		public int getCode() {
+			return code;
+		}
+
+		public Map<String, List<String>> getHeaders() {
+			return headers;
+		}
+
+		public String getHeader(String name) {
+			for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+				if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty())
+					return header.getValue().get(0);
+			}
+			return null;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+	}
+}
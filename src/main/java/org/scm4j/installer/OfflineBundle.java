@@ -0,0 +1,290 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.scm4j.deployer.engine.DeployerEngine;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Zip of everything the deploy of some products needs from the repositories, for sites without a route to them.
+ * Export downloads the products through the relay recording its responses, import unpacks them to the offline folder
+ * the relay answers from before going to the mirrors. Entries:
+ * <pre>
+ * bundle.properties  format, creation time and products
+ * checksums.sha1     "sha1  entry" line per entry below
+ * manifest.txt       products and versions exported, to be passed to batch command
+ * catalog.properties catalog snapshot
+ * repo/&lt;path&gt;        repository responses, empty &lt;path&gt;.404 for the paths repositories do not have
+ * </pre>
+ */
+public class OfflineBundle {
+
+	public static final int FORMAT = 1;
+	static final String MISSING_EXTENSION = ".404";
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(OfflineBundle.class);
+	private static final String PROPERTIES_ENTRY = "bundle.properties";
+	private static final String CHECKSUMS_ENTRY = "checksums.sha1";
+	private static final String MANIFEST_ENTRY = "manifest.txt";
+	private static final String CATALOG_ENTRY = "catalog.properties";
+	private static final String REPO_PREFIX = "repo/";
+
+	private OfflineBundle() {
+	}
+
+	/**
+	 * Downloads the products through the relay and writes the bundle atomically. The engine works in a temporary
+	 * folder, so it requests everything even if the products are in the working folder already. Stored artifacts are
+	 * taken from the blob store.
+	 */
+	public static void export(List<BatchDeploy.Item> items, File bundle) throws Exception {
+		MirrorRelay relay = MirrorRelay.getInstance();
+		if (!relay.isStarted())
+			throw new IOException("Relay is not running, responses can't be recorded");
+		File tempFolder = Files.createTempDirectory("export").toFile();
+		try {
+			Recording recording = new Recording();
+			List<BatchDeploy.Item> exported = new ArrayList<>();
+			relay.setRecording(recording);
+			try {
+				DeployerEngine engine = new DeployerEngine(Settings.getPortableFolder(), tempFolder,
+						relay.getRepositoryUrls());
+				Metrics.getInstance().time("product list refresh", null, engine::refreshProducts);
+				for (BatchDeploy.Item item : items) {
+					// recorded for the resolution of the latest version at the site
+					Metrics.getInstance().time("version listing", item.getProduct(),
+							() -> engine.refreshProductVersions(item.getProduct()));
+					String version = item.getVersion().equalsIgnoreCase(CLI.LATEST_VERSION)
+							? CLI.resolveLatestVersion(engine, item.getProduct()) : item.getVersion();
+					Metrics.getInstance().timeDownload(engine, item.getProduct(), version);
+					exported.add(new BatchDeploy.Item(item.getProduct(), version));
+				}
+			} finally {
+				relay.setRecording(null);
+			}
+			File manifest = new File(tempFolder, MANIFEST_ENTRY);
+			BatchDeploy.writeManifest(manifest, exported);
+			// refreshes the snapshot if it is stale
+			CLI.loadCatalog(Platform.createDeployerEngine());
+			byte[] catalog = new CatalogCache().read();
+			try (Metrics.Timer timer = Metrics.getInstance().time("bundle export", bundle.getName())) {
+				write(bundle, exported, recording, manifest, catalog);
+				timer.done();
+			}
+		} finally {
+			FileUtils.deleteQuietly(tempFolder);
+		}
+	}
+
+	private static void write(File bundle, List<BatchDeploy.Item> exported, Recording recording, File manifest,
+			byte[] catalog) throws IOException {
+		Map<String, String> checksums = new TreeMap<>();
+		checksums.put(MANIFEST_ENTRY, Checksums.hash(manifest, Checksums.SHA1));
+		checksums.put(CATALOG_ENTRY, Checksums.toHex(Checksums.newDigest(Checksums.SHA1).digest(catalog)));
+		for (Map.Entry<String, byte[]> metadata : recording.metadata.entrySet())
+			checksums.put(REPO_PREFIX + metadata.getKey(),
+					Checksums.toHex(Checksums.newDigest(Checksums.SHA1).digest(metadata.getValue())));
+		for (String missing : recording.missing)
+			checksums.put(REPO_PREFIX + missing + MISSING_EXTENSION,
+					Checksums.toHex(Checksums.newDigest(Checksums.SHA1).digest()));
+		for (Map.Entry<String, String> sha1 : recording.sha1s.entrySet())
+			checksums.put(REPO_PREFIX + sha1.getKey(), sha1.getValue());
+		Properties props = new Properties();
+		props.setProperty("format", Integer.toString(FORMAT));
+		props.setProperty("created", Instant.now().toString());
+		props.setProperty("products", exported.stream().map(BatchDeploy.Item::toString)
+				.collect(Collectors.joining(",")));
+		ByteArrayOutputStream propsBytes = new ByteArrayOutputStream();
+		props.store(propsBytes, "offline bundle");
+		StringBuilder checksumLines = new StringBuilder();
+		for (Map.Entry<String, String> checksum : checksums.entrySet())
+			checksumLines.append(checksum.getValue()).append("  ").append(checksum.getKey()).append('\n');
+
+		FileUtils.forceMkdir(bundle.getAbsoluteFile().getParentFile());
+		File tmpFile = new File(bundle.getPath() + ".tmp");
+		try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(tmpFile.toPath()), Settings.COPY_BUFFER_SIZE))) {
+			// properties and checksums go first, so import verifies the entries as it streams them
+			putEntry(zip, PROPERTIES_ENTRY, propsBytes.toByteArray());
+			putEntry(zip, CHECKSUMS_ENTRY, checksumLines.toString().getBytes(StandardCharsets.UTF_8));
+			putEntry(zip, MANIFEST_ENTRY, Files.readAllBytes(manifest.toPath()));
+			putEntry(zip, CATALOG_ENTRY, catalog);
+			for (Map.Entry<String, byte[]> metadata : recording.metadata.entrySet())
+				putEntry(zip, REPO_PREFIX + metadata.getKey(), metadata.getValue());
+			for (String missing : recording.missing)
+				putEntry(zip, REPO_PREFIX + missing + MISSING_EXTENSION, new byte[0]);
+			for (Map.Entry<String, File> artifact : recording.artifacts.entrySet()) {
+				// archives are not compressed again
+				zip.setLevel(isCompressed(artifact.getKey()) ? Deflater.NO_COMPRESSION
+						: Deflater.DEFAULT_COMPRESSION);
+				zip.putNextEntry(new ZipEntry(REPO_PREFIX + artifact.getKey()));
+				Files.copy(artifact.getValue().toPath(), zip);
+				zip.closeEntry();
+			}
+		}
+		Files.move(tmpFile.toPath(), bundle.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		LOG.info(bundle + " written: " + exported.size() + " products, " + checksums.size() + " entries, "
+				+ TransferProgress.formatBytes(bundle.length()));
+	}
+
+	private static void putEntry(ZipOutputStream zip, String name, byte[] content) throws IOException {
+		zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content);
+		zip.closeEntry();
+	}
+
+	private static boolean isCompressed(String path) {
+		String extension = path.substring(path.lastIndexOf('.') + 1);
+		for (String blobExtension : Settings.BLOB_EXTENSIONS)
+			if (blobExtension.equalsIgnoreCase(extension))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Streams the bundle entries to the offline folder verifying each against the bundle checksums, an entry is moved
+	 * in place only if it matches. The catalog snapshot of the bundle replaces the local one if it is newer.
+	 *
+	 * @return manifest of the products exported
+	 */
+	public static File importBundle(File bundle) throws IOException {
+		File offlineFolder = Settings.getOfflineFolder();
+		Properties props = null;
+		Map<String, String> checksums = null;
+		int entries = 0;
+		try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(Files.newInputStream(bundle.toPath()),
+				Settings.COPY_BUFFER_SIZE))) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				String name = entry.getName();
+				if (props == null) {
+					if (!name.equals(PROPERTIES_ENTRY))
+						throw new IOException(bundle + " is not an offline bundle");
+					props = new Properties();
+					props.load(zip);
+					if (!Integer.toString(FORMAT).equals(props.getProperty("format")))
+						throw new IOException("Unsupported format " + props.getProperty("format") + " of " + bundle);
+					continue;
+				}
+				if (checksums == null) {
+					if (!name.equals(CHECKSUMS_ENTRY))
+						throw new IOException("No checksums in " + bundle);
+					checksums = parseChecksums(IOUtils.toString(zip, StandardCharsets.UTF_8));
+					continue;
+				}
+				String checksum = checksums.get(name);
+				if (checksum == null || name.contains(".."))
+					throw new IOException("Unexpected entry " + name + " in " + bundle);
+				File target = new File(offlineFolder, name.startsWith(REPO_PREFIX)
+						? name.substring(REPO_PREFIX.length()) : name);
+				extract(zip, name, checksum, target);
+				entries++;
+			}
+		}
+		if (checksums == null)
+			throw new IOException(bundle + " is truncated");
+		if (entries != checksums.size())
+			throw new IOException(bundle + " has " + entries + " of " + checksums.size() + " entries");
+		LOG.info(bundle + " imported to " + offlineFolder + ": " + props.getProperty("products"));
+		importCatalog(new File(offlineFolder, CATALOG_ENTRY));
+		return new File(offlineFolder, MANIFEST_ENTRY);
+	}
+
+	private static void extract(ZipInputStream zip, String name, String checksum, File target) throws IOException {
+		FileUtils.forceMkdir(target.getParentFile());
+		File tmpFile = new File(target.getPath() + ".tmp");
+		MessageDigest digest = Checksums.newDigest(Checksums.SHA1);
+		try (OutputStream out = new DigestOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(tmpFile.toPath()), Settings.COPY_BUFFER_SIZE), digest)) {
+			IOUtils.copy(zip, out, Settings.COPY_BUFFER_SIZE);
+		} catch (IOException e) {
+			FileUtils.deleteQuietly(tmpFile);
+			throw e;
+		}
+		if (!Checksums.toHex(digest.digest()).equals(checksum)) {
+			FileUtils.deleteQuietly(tmpFile);
+			throw new IOException("SHA-1 of " + name + " does not match " + checksum);
+		}
+		Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static Map<String, String> parseChecksums(String lines) {
+		Map<String, String> res = new TreeMap<>();
+		for (String line : lines.split("\n")) {
+			int sep = line.indexOf("  ");
+			if (sep > 0)
+				res.put(line.substring(sep + 2), line.substring(0, sep));
+		}
+		return res;
+	}
+
+	private static void importCatalog(File file) {
+		Catalog imported = new CatalogCache(file, null).load();
+		if (imported == null)
+			return;
+		CatalogCache catalogCache = new CatalogCache();
+		Catalog current = catalogCache.load();
+		if (current != null && current.getFetchedAt() >= imported.getFetchedAt())
+			return;
+		if (current != null)
+			imported.setRevision(Math.max(imported.getRevision(), current.getRevision()));
+		catalogCache.save(imported);
+		LOG.info("Catalog snapshot is taken from the bundle");
+	}
+
+	/**
+	 * Responses of the relay recorded for export.
+	 */
+	static class Recording {
+
+		private final Map<String, byte[]> metadata = new ConcurrentSkipListMap<>();
+		private final Map<String, File> artifacts = new ConcurrentSkipListMap<>();
+		private final Map<String, String> sha1s = new ConcurrentSkipListMap<>();
+		private final Set<String> missing = new ConcurrentSkipListSet<>();
+
+		void metadata(String path, byte[] body) {
+			metadata.put(path, body);
+		}
+
+		/**
+		 * @param file the blob or the file of the offline folder
+		 */
+		void artifact(String path, File file, String sha1) {
+			artifacts.put(path, file);
+			sha1s.put(path, sha1);
+		}
+
+		void missing(String path) {
+			missing.add(path);
+		}
+	}
+}
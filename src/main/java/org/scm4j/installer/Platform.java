@@ -0,0 +1,93 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.scm4j.deployer.engine.DeployerEngine;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Helpers which need no display: engine creation, JRE provisioning, tasks after reboot and the reboot itself. Silent
+ * runs use only these, so they never load SWT.
+ */
+public final class Platform {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(Platform.class);
+
+	private Platform() {
+	}
+
+	public static DeployerEngine createDeployerEngine() {
+		return new DeployerEngine(Settings.getPortableFolder(), Settings.getWorkingFolder(),
+				MirrorRelay.getInstance().getRepositoryUrls());
+	}
+
+	public static int createBatAndTaskForWindowsTaskScheduler(String product, String version, String outputFolderName)
+			throws Exception {
+		return createBatAndTaskForWindowsTaskScheduler("start cmd /c \"" + Settings.getLaunchCommand()
+				+ " deploy " + product + ' ' + version + " -a -i -r \"" + outputFolderName + "\"\"");
+	}
+
+	public static int createBatAndTaskForWindowsTaskScheduler(String product, String version)
+			throws Exception {
+		return createBatAndTaskForWindowsTaskScheduler("start cmd /c \"" + Settings.getLaunchCommand()
+				+ " deploy " + product + ' ' + version + " -a\"");
+	}
+
+	public static int createBatAndTaskForWindowsTaskScheduler(String taskCommand) throws Exception {
+		String taskAndBatName = "afterReboot" + System.nanoTime();
+		File tempBatFile = new File(System.getProperty("java.io.tmpdir"), taskAndBatName + ".bat");
+		List<String> taskEntry = new ArrayList<>(Arrays.asList("schtasks", "/Create", "/ru", "\"System\"", "/tn",
+				taskAndBatName, "/sc", "ONSTART", "/tr", '\"' + tempBatFile.getPath() + '\"'));
+		if (!SystemUtils.IS_OS_WINDOWS_XP) {
+			taskEntry.add("/rl");
+			taskEntry.add("highest");
+		}
+		List<String> batCommands = Arrays.asList("@echo off", taskCommand,
+				"schtasks /delete /tn " + taskAndBatName + " /f", "(goto) 2>nul & del \"%~f0\"");
+		FileUtils.writeLines(tempBatFile, "UTF-8", batCommands);
+		LOG.info("Bat write successfully");
+		ProcessBuilder builder = new ProcessBuilder(taskEntry).redirectErrorStream(true);
+		Process p = builder.start();
+		int exitcode = p.waitFor();
+		LOG.info("exit code from task creation is " + exitcode);
+		return exitcode;
+	}
+
+	public static void restartPc() {
+		try {
+			Runtime.getRuntime().exec("shutdown -r");
+		} catch (IOException e) {
+			//ok
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Provisions the JRE of the installer package to the default installer folder, see {@link JreProvisioner}.
+	 */
+	@SuppressWarnings("try")
+	public static synchronized void copyJreIfNotExists() {
+		File jreFile = new File(Settings.DEFAULT_INSTALLER_URL, Settings.JRE_VERSION);
+		try {
+			String path = Settings.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+			String decodedPath = URLDecoder.decode(path, "UTF-8");
+			File jarFile = new File(decodedPath);
+			File installerJreFile = new File(jarFile.getParentFile().getParentFile(), Settings.JRE_VERSION);
+			// other installer processes may provision the same JRE
+			try (FileLocks.Handle lock = FileLocks.lock(new File(Settings.getLocksFolder(), "jre.lock"), true);
+			     Metrics.Timer timer = Metrics.getInstance().time("jre provisioning", null)) {
+				new JreProvisioner(installerJreFile, jreFile).provision();
+				timer.done();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOCase;
+import org.scm4j.deployer.engine.DeployerEngine;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads the latest visible versions of all the products or of the products matching the filters in parallel,
+ * so the following deploys do not need the network.
+ */
+public class Prefetch {
+
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(Prefetch.class);
+
+	private final DeployerEngine deployerEngine;
+	private final int workers;
+	private final Map<String, String> results = new LinkedHashMap<>();
+
+	public Prefetch(DeployerEngine deployerEngine, int workers) {
+		this.deployerEngine = deployerEngine;
+		this.workers = workers;
+	}
+
+	/**
+	 * @param filters product names, * and ? wildcards are allowed, all visible products if empty
+	 */
+	public void run(Catalog catalog, List<String> filters) throws InterruptedException {
+		Map<String, String> products = new LinkedHashMap<>();
+		for (String productName : catalog.getProductNames()) {
+			if (!matches(productName, filters) || filters.isEmpty() && catalog.isHidden(productName))
+				continue;
+			String latestVersion = catalog.getLatestVersion(productName);
+			if (latestVersion == null) {
+				results.put(productName, "FAILED no released versions");
+				continue;
+			}
+			products.put(productName, latestVersion);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(workers, CatalogLoader.daemonThreads("prefetch"));
+		try {
+			Map<String, Future<?>> futures = new LinkedHashMap<>();
+			for (Map.Entry<String, String> product : products.entrySet()) {
+				futures.put(product.getKey(), executor.submit(() -> {
+					LOG.info("Prefetching " + product.getKey() + ' ' + product.getValue());
+					Metrics.getInstance().timeDownload(deployerEngine, product.getKey(), product.getValue());
+				}));
+			}
+			for (Map.Entry<String, Future<?>> future : futures.entrySet()) {
+				String productAndVersion = future.getKey() + ' ' + products.get(future.getKey());
+				try {
+					future.getValue().get();
+					results.put(future.getKey(), products.get(future.getKey()) + " OK");
+				} catch (ExecutionException e) {
+					LOG.warn("Error prefetching " + productAndVersion + ": " + e.getCause().toString());
+					results.put(future.getKey(), products.get(future.getKey()) + " FAILED "
+							+ e.getCause().toString());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static boolean matches(String productName, List<String> filters) {
+		if (filters.isEmpty())
+			return true;
+		for (String filter : filters) {
+			if (FilenameUtils.wildcardMatch(productName, filter, IOCase.INSENSITIVE))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return 0 if all products are downloaded, 2 otherwise
+	 */
+	public int getExitCode() {
+		return results.values().stream().allMatch(result -> result.endsWith(" OK")) ? 0 : 2;
+	}
+
+	public void writeResults(File file) throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (Map.Entry<String, String> result : results.entrySet())
+			lines.add(result.getKey() + ' ' + result.getValue());
+		FileUtils.writeLines(file, "UTF-8", lines);
+	}
+}
@@ -0,0 +1,229 @@
+package org.scm4j.installer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Rows of the product table sorted by product name. Only the rows which product name contains the filter are
+ * visible, indexes are indexes of the visible rows.
+ */
+public class ProductRows {
+
+	public static final String NOT_INSTALLED = "Not installed";
+	public static final String FAILED_TO_LOAD = "Failed to load";
+	private static final Comparator<String> NAME_ORDER = String.CASE_INSENSITIVE_ORDER
+			.thenComparing(Comparator.naturalOrder());
+
+	private final List<Row> rows = new ArrayList<>();
+	private List<Row> visibleRows = rows;
+	private String filter = "";
+
+	/**
+	 * Adds the row or replaces the row of the same product.
+	 *
+	 * @return false if the same row is there already
+	 */
+	public boolean put(Row row) {
+		int index = indexOf(rows, row.getName());
+		if (index >= 0 && rows.get(index).equals(row))
+			return false;
+		put(rows, row);
+		if (visibleRows != rows) {
+			if (matches(row))
+				put(visibleRows, row);
+			else
+				remove(visibleRows, row.getName());
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces the rows by the rows of the catalog products. Version indexes of the products are put to the given
+	 * map, products which versions failed to load are shown as failed.
+	 *
+	 * @param installedText installed version text of the product
+	 */
+	public void fill(Catalog catalog, boolean showHiddenProducts, boolean showHiddenVersions,
+	                 Function<String, String> installedText, Map<String, VersionIndex> versionIndexes) {
+		clear();
+		for (String productName : catalog.getProductNames()) {
+			if (!showHiddenProducts && catalog.isHidden(productName))
+				continue;
+			if (catalog.hasVersions(productName)) {
+				VersionIndex versionIndex = catalog.getVersionIndex(productName);
+				versionIndexes.put(productName, versionIndex);
+				put(loadedRow(productName, installedText.apply(productName), versionIndex, showHiddenVersions));
+			} else {
+				put(failedRow(productName, installedText.apply(productName)));
+			}
+		}
+	}
+
+	public static Row loadedRow(String productName, String installed, VersionIndex versionIndex,
+	                            boolean showHiddenVersions) {
+		String latestVersion = versionIndex.getLatest(showHiddenVersions);
+		return new Row(productName, installed, latestVersion != null ? latestVersion : "", Row.State.LOADED);
+	}
+
+	public static Row failedRow(String productName, String installed) {
+		return new Row(productName, installed, FAILED_TO_LOAD, Row.State.FAILED);
+	}
+
+	/**
+	 * @return installed version text of the version the engine reports as deployed
+	 */
+	public static String toInstalledText(String deployedVersion) {
+		return deployedVersion == null || deployedVersion.isEmpty() ? NOT_INSTALLED : deployedVersion;
+	}
+
+	/**
+	 * @return all the rows, visible or not
+	 */
+	public List<Row> getRows() {
+		return new ArrayList<>(rows);
+	}
+
+	/**
+	 * @return row of the product, visible or not, or null
+	 */
+	public Row find(String productName) {
+		int index = indexOf(rows, productName);
+		return index >= 0 ? rows.get(index) : null;
+	}
+
+	private static void put(List<Row> list, Row row) {
+		int index = indexOf(list, row.getName());
+		if (index >= 0)
+			list.set(index, row);
+		else
+			list.add(-index - 1, row);
+	}
+
+	private static void remove(List<Row> list, String productName) {
+		int index = indexOf(list, productName);
+		if (index >= 0)
+			list.remove(index);
+	}
+
+	private static int indexOf(List<Row> list, String productName) {
+		return Collections.binarySearch(list, null, (row, ignored) -> NAME_ORDER.compare(row.getName(),
+				productName));
+	}
+
+	/**
+	 * Removes the rows of the products not in the given collection.
+	 */
+	public void retain(Collection<String> productNames) {
+		rows.removeIf(row -> !productNames.contains(row.getName()));
+		if (visibleRows != rows)
+			visibleRows.removeIf(row -> !productNames.contains(row.getName()));
+	}
+
+	public void clear() {
+		rows.clear();
+		if (visibleRows != rows)
+			visibleRows.clear();
+	}
+
+	public String getFilter() {
+		return filter;
+	}
+
+	public void setFilter(String filter) {
+		this.filter = filter.trim().toLowerCase();
+		if (this.filter.isEmpty()) {
+			visibleRows = rows;
+			return;
+		}
+		visibleRows = new ArrayList<>();
+		for (Row row : rows) {
+			if (matches(row))
+				visibleRows.add(row);
+		}
+	}
+
+	private boolean matches(Row row) {
+		return row.getName().toLowerCase().contains(filter);
+	}
+
+	/**
+	 * @return number of visible rows
+	 */
+	public int size() {
+		return visibleRows.size();
+	}
+
+	public Row get(int index) {
+		return visibleRows.get(index);
+	}
+
+	/**
+	 * @return index of the visible row of the product or -1
+	 */
+	public int indexOf(String productName) {
+		int index = indexOf(visibleRows, productName);
+		return index >= 0 ? index : -1;
+	}
+
+	public static class Row {
+
+		private final String name;
+		private final String installed;
+		private final String latest;
+		private final State state;
+
+		public Row(String name, String installed, String latest, State state) {
+			this.name = name;
+			this.installed = installed;
+			this.latest = latest;
+			this.state = state;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getInstalled() {
+			return installed;
+		}
+
+		public String getLatest() {
+			return latest;
+		}
+
+		/**
+		 * @return state of the versions of the product
+		 */
+		public State getState() {
+			return state;
+		}
+
+		public Row withInstalled(String installed) {
+			return new Row(name, installed, latest, state);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Row))
+				return false;
+			Row row = (Row) o;
+			return state == row.state && name.equals(row.name) && installed.equals(row.installed)
+					&& latest.equals(row.latest);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, installed, latest, state);
+		}
+
+		public enum State {LOADING, LOADED, FAILED}
+	}
+}
@@ -1,38 +1,52 @@
 package org.scm4j.installer;
 
-import org.apache.commons.io.FileUtils;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.FormAttachment;
 import org.eclipse.swt.layout.FormData;
 import org.eclipse.swt.layout.FormLayout;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.ProgressBar;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Text;
+import org.slf4j.Logger;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
 public class Progress {
 
+	private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(Progress.class);
+	private static final int TRANSFER_REFRESH_MILLIS = 250;
+
 	private final Runnable runnable;
 	private final Shell parent;
 	protected Throwable result;
 	protected Shell shell;
 	private final String shellName;
+	private final TransferProgress transferProgress;
 	private Text log;
+	private Label transferInfo;
+	private ProgressBar transferBar;
 
 	/**
 	 * Create the dialog.
 	 */
 	public Progress(Shell parent, String text, Runnable runnable) {
+		this(parent, text, runnable, null);
+	}
+
+	/**
+	 * Create the dialog which also shows artifacts download progress.
+	 */
+	public Progress(Shell parent, String text, Runnable runnable, TransferProgress transferProgress) {
 		this.parent = parent;
 		this.shellName = text;
 		this.runnable = runnable;
+		this.transferProgress = transferProgress;
 	}
 
 	/**
@@ -49,6 +63,8 @@ public class Progress {
 		shell.layout();
 
 		new ProcessThread().start();
+		if (transferProgress != null)
+			display.timerExec(TRANSFER_REFRESH_MILLIS, this::refreshTransfer);
 
 		while (!shell.isDisposed()) {
 			if (!display.readAndDispatch()) {
@@ -82,6 +98,36 @@ public class Progress {
 		fd_log.right = new FormAttachment(100, -10);
 		fd_log.bottom = new FormAttachment(progressBar, 10);
 		log.setLayoutData(fd_log);
+
+		if (transferProgress != null) {
+			shell.setSize(600, 140);
+			transferInfo = new Label(shell, SWT.NONE);
+			FormData fd_transferInfo = new FormData();
+			fd_transferInfo.top = new FormAttachment(progressBar, 5);
+			fd_transferInfo.left = new FormAttachment(0, 10);
+			fd_transferInfo.right = new FormAttachment(100, -10);
+			transferInfo.setLayoutData(fd_transferInfo);
+
+			transferBar = new ProgressBar(shell, SWT.SMOOTH);
+			transferBar.setMaximum(1000);
+			FormData fd_transferBar = new FormData();
+			fd_transferBar.top = new FormAttachment(transferInfo, 5);
+			fd_transferBar.left = new FormAttachment(0, 10);
+			fd_transferBar.right = new FormAttachment(100, -10);
+			transferBar.setLayoutData(fd_transferBar);
+			Common.centerWindow(display.getPrimaryMonitor().getBounds(), shell);
+		}
+	}
+
+	private void refreshTransfer() {
+		if (shell.isDisposed())
+			return;
+		if (transferProgress.getDone() > 0) {
+			transferInfo.setText(transferProgress.toString());
+			long total = transferProgress.getTotal();
+			transferBar.setSelection(total > 0 ? (int) (transferProgress.getDone() * 1000 / total) : 0);
+		}
+		shell.getDisplay().timerExec(TRANSFER_REFRESH_MILLIS, this::refreshTransfer);
 	}
 
 	class ProcessThread extends Thread {
@@ -89,37 +135,23 @@ public class Progress {
 		public void run() {
 			PrintStream standardOut = System.out;
 			PrintStream standardErr = System.err;
-			OutputStream textLogOutputStream = new OutputStream() {
-				private final String child =
-						LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmm")) + '-'
-								+ shellName + ".txt";
-				private final File parentFile = new File(Settings.getWorkingFolder(), "logs");
-				private final File currentLogFile = new File(parentFile, child);
-				private final StringBuilder stringBuilder = new StringBuilder();
-
-				@Override
-				public synchronized void write(int b) {
-					stringBuilder.append(String.valueOf((char) b));
-					if (b == '\n') {
-						String finalString = stringBuilder.toString();
-						Display display = shell.getDisplay();
-						if (finalString.matches("^\\d{2}-\\d{2}-\\d{2}.*?(\r)\n$"))
-							display.asyncExec(() -> log.setText(finalString.substring(15)));
-						stringBuilder.setLength(0);
-						try {
-							FileUtils.writeStringToFile(currentLogFile, finalString, "UTF-8", true);
-						} catch (IOException e) {
-							//
-						}
-					}
-				}
-			};
+			String child = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmm")) + '-'
+					+ shellName + ".txt";
+			File currentLogFile = new File(new File(Settings.getWorkingFolder(), "logs"), child);
+			Display display = shell.getDisplay();
+			StatusUpdater statusUpdater = new StatusUpdater(display, Settings.STATUS_UPDATES_PER_SECOND, status -> {
+				if (!log.isDisposed())
+					log.setText(status);
+			});
+			LogSink textLogOutputStream = new LogSink(currentLogFile, Charset.defaultCharset(), statusUpdater);
 
 			PrintStream textLogPrintStream = new PrintStream(textLogOutputStream);
 
 			try {
 				System.setOut(textLogPrintStream);
 				System.setErr(textLogPrintStream);
+				if (transferProgress != null)
+					MirrorRelay.getInstance().setTransferProgress(transferProgress);
 				if (runnable != null) {
 					try {
 						runnable.run();
@@ -130,11 +162,15 @@ public class Progress {
 				}
 
 				// update progressBar
-				Display display = shell.getDisplay();
 				display.syncExec(() -> shell.close());
 			} finally {
+				if (transferProgress != null)
+					MirrorRelay.getInstance().setTransferProgress(null);
 				System.setOut(standardOut);
 				System.setErr(standardErr);
+				textLogPrintStream.close();
+				LOG.debug(statusUpdater.getReceived() + " status lines shown " + statusUpdater.getPublished()
+						+ " times, " + statusUpdater.getCoalesced() + " coalesced");
 			}
 		}
 	}
@@ -10,6 +10,38 @@ public final class Settings {
 	public static final String PRODUCT_LIST_URL_1 = "https://su.untill.com/artifactory1/untill";
 	public static final String PRODUCT_LIST_URL_2 = "https://su.untill.com/artifactory2/untill";
 	public static final String DEFAULT_INSTALLER_URL = "C:/tools/untill/installer";
+	public static final int CATALOG_LOAD_THREADS = 8;
+	public static final int CATALOG_LOAD_TIMEOUT_SECONDS = 60;
+	public static final String CATALOG_FILE_NAME = "catalog.properties";
+	public static final int CATALOG_TTL_MINUTES = 15;
+	public static final int CATALOG_MAX_AGE_HOURS = 24;
+	public static final String PRODUCT_LIST_METADATA = "org/scm4j/deployer/product-list/maven-metadata.xml";
+	public static final int HTTP_TIMEOUT_MILLIS = 10000;
+	public static final int HEDGE_DELAY_MILLIS = 300;
+	public static final int COPY_BUFFER_SIZE = 64 * 1024;
+	public static final int LOG_BUFFER_SIZE = 256 * 1024;
+	public static final int STATUS_UPDATES_PER_SECOND = 20;
+	public static final int DOWNLOAD_THREADS = 4;
+	public static final int PIPELINE_DEPTH = 2;
+	public static final long PIPELINE_MIN_FREE_SPACE = 2L * 1024 * 1024 * 1024;
+	public static final String DOWNLOADS_FOLDER_NAME = "downloads";
+	public static final int DOWNLOAD_RETRIES = 5;
+	public static final long CHUNKED_DOWNLOAD_THRESHOLD = 32L * 1024 * 1024;
+	public static final long DOWNLOAD_CHUNK_SIZE = 8L * 1024 * 1024;
+	public static final int DOWNLOAD_CHUNK_THREADS = 4;
+	public static final String BLOBS_FOLDER_NAME = "blobs";
+	public static final String REPOSITORY_FOLDER_NAME = "repository";
+	public static final String LOCKS_FOLDER_NAME = "locks";
+	public static final String OFFLINE_FOLDER_NAME = "offline";
+	public static final String[] BLOB_EXTENSIONS = {"jar", "zip", "war", "exe", "msi", "7z", "gz"};
+	public static final long BLOB_MIN_SIZE = 64 * 1024;
+	public static final long DELTA_MIN_SIZE = 1024 * 1024;
+	public static final String JRE_VERSION = "jre-1.8.0_171";
+	public static final String JRE_MANIFEST_FILE_NAME = "jre-manifest.properties";
+	public static final int JRE_COPY_THREADS = 4;
+	public static final String AGENT_FILE_NAME = "agent.properties";
+	public static final String METRICS_FILE_NAME = "metrics.json";
+	public static final String EVENTS_FILE_NAME = "events.ndjson";
 	private static String productName = "scm4j-installer";
 	private static InputStream iconFileStream;
 
@@ -44,6 +76,17 @@ public final class Settings {
 		}
 	}
 
+	/**
+	 * @return command running the installer through {@link Main} the way it is running now, by the exe or by java
+	 */
+	public static String getLaunchCommand() {
+		File runningFile = getRunningFile();
+		if (runningFile.getName().toLowerCase().endsWith(".exe"))
+			return '"' + runningFile.getPath() + '"';
+		return '"' + new File(new File(System.getProperty("java.home"), "bin"), "java").getPath() + "\" -cp \""
+				+ System.getProperty("java.class.path") + "\" " + Main.class.getName();
+	}
+
 	private static boolean isPortable() {
 		return !getRunningFolder().toPath().startsWith(DEFAULT_INSTALLER_URL);
 	}
@@ -52,6 +95,29 @@ public final class Settings {
 		return new File(Settings.WORKING_FOLDER);
 	}
 
+	public static File getDownloadsFolder() {
+		return new File(getWorkingFolder(), DOWNLOADS_FOLDER_NAME);
+	}
+
+	public static File getBlobsFolder() {
+		return new File(getWorkingFolder(), BLOBS_FOLDER_NAME);
+	}
+
+	/**
+	 * @return local repository of the engine, artifacts are stored there by the engine
+	 */
+	public static File getRepositoryFolder() {
+		return new File(getWorkingFolder(), REPOSITORY_FOLDER_NAME);
+	}
+
+	public static File getLocksFolder() {
+		return new File(getWorkingFolder(), LOCKS_FOLDER_NAME);
+	}
+
+	public static File getOfflineFolder() {
+		return new File(getWorkingFolder(), OFFLINE_FOLDER_NAME);
+	}
+
 	public static File getPortableFolder() {
 		if (isPortable()) {
 			return new File(getRunningFolder().getParentFile().getPath());
@@ -0,0 +1,72 @@
+package org.scm4j.installer;
+
+import org.eclipse.swt.widgets.Display;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Passes statuses from any thread to the UI thread at a fixed maximum rate. Only the latest status is published,
+ * the intermediate ones are dropped, so the UI thread cost does not depend on the amount of statuses.
+ */
+public class StatusUpdater implements Consumer<String> {
+
+	private final Display display;
+	private final Consumer<String> target;
+	private final long intervalNanos;
+	private final AtomicReference<String> pending = new AtomicReference<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong published = new AtomicLong();
+	private volatile long lastPublished;
+
+	/**
+	 * @param target called on the UI thread
+	 */
+	public StatusUpdater(Display display, int updatesPerSecond, Consumer<String> target) {
+		this.display = display;
+		this.target = target;
+		intervalNanos = TimeUnit.SECONDS.toNanos(1) / updatesPerSecond;
+		lastPublished = System.nanoTime() - intervalNanos;
+	}
+
+	@Override
+	public void accept(String status) {
+		received.incrementAndGet();
+		pending.set(status);
+		if (scheduled.compareAndSet(false, true) && !display.isDisposed()) {
+			display.asyncExec(() -> {
+				long delay = lastPublished + intervalNanos - System.nanoTime();
+				display.timerExec((int) Math.max(0, TimeUnit.NANOSECONDS.toMillis(delay)), this::publish);
+			});
+		}
+	}
+
+	private void publish() {
+		scheduled.set(false);
+		String status = pending.getAndSet(null);
+		if (status != null) {
+			lastPublished = System.nanoTime();
+			published.incrementAndGet();
+			target.accept(status);
+		}
+	}
+
+	public long getReceived() {
+		return received.get();
+	}
+
+	public long getPublished() {
+		return published.get();
+	}
+
+	/**
+	 * @return amount of statuses dropped because a newer one arrived before they were shown
+	 */
+	public long getCoalesced() {
+		return received.get() - published.get() - (pending.get() == null ? 0 : 1);
+	}
+}
@@ -0,0 +1,41 @@
+package org.scm4j.installer;
+
+import org.eclipse.swt.widgets.Shell;
+
+/**
+ * Shows errors, warnings and information in message boxes.
+ */
+public class SwtErrorReporter implements ErrorReporter {
+
+	private final Shell shell;
+
+	public SwtErrorReporter() {
+		this(new Shell());
+	}
+
+	public SwtErrorReporter(Shell shell) {
+		this.shell = shell;
+	}
+
+	/**
+	 * @return shell to open progress windows in
+	 */
+	public Shell getShell() {
+		return shell;
+	}
+
+	@Override
+	public void error(String message, Throwable exception) {
+		Common.showError(shell, message, exception);
+	}
+
+	@Override
+	public void warn(String message) {
+		Common.showWarn(shell, message);
+	}
+
+	@Override
+	public void info(String message) {
+		Common.showInfo(shell, message);
+	}
+}
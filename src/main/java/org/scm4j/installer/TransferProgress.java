@@ -0,0 +1,203 @@
+package org.scm4j.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Byte counters of the artifact transfers: bytes done and total per artifact and in aggregate, smoothed transfer
+ * rate and estimated time left.
+ */
+public class TransferProgress {
+
+	private static final double SMOOTHING = 0.3;
+	private static final long SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+	private final Map<String, Transfer> transfers = new LinkedHashMap<>();
+	private long done;
+	private long sampleTime = System.nanoTime();
+	private long sampleDone;
+	private double bytesPerSecond;
+
+	public synchronized void started(String artifact, long total) {
+		Transfer transfer = transfers.get(artifact);
+		if (transfer == null) {
+			transfers.put(artifact, new Transfer(artifact, total));
+		} else {
+			done -= transfer.done;
+			transfer.done = 0;
+			transfer.total = total;
+		}
+	}
+
+	/**
+	 * Starts counting an artifact which transfer is resumed, the bytes done before do not affect the rate.
+	 */
+	public synchronized void resumed(String artifact, long total, long alreadyDone) {
+		started(artifact, total);
+		transfers.get(artifact).done = alreadyDone;
+		done += alreadyDone;
+		sampleDone += alreadyDone;
+	}
+
+	public synchronized void transferred(String artifact, long bytes) {
+		Transfer transfer = transfers.get(artifact);
+		if (transfer == null) {
+			transfer = new Transfer(artifact, -1);
+			transfers.put(artifact, transfer);
+		}
+		transfer.done += bytes;
+		done += bytes;
+		sample(System.nanoTime());
+	}
+
+	public synchronized void completed(String artifact) {
+		Transfer transfer = transfers.get(artifact);
+		if (transfer != null) {
+			transfer.total = transfer.done;
+			transfer.completed = true;
+		}
+	}
+
+	private void sample(long now) {
+		long elapsed = now - sampleTime;
+		if (elapsed < SAMPLE_NANOS)
+			return;
+		double rate = (done - sampleDone) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+		bytesPerSecond = sampleDone == 0 && bytesPerSecond == 0 ? rate
+				: bytesPerSecond + SMOOTHING * (rate - bytesPerSecond);
+		sampleTime = now;
+		sampleDone = done;
+	}
+
+	public synchronized long getDone() {
+		return done;
+	}
+
+	/**
+	 * @return sum of the sizes of all artifacts or -1 if size of some artifact is not known
+	 */
+	public synchronized long getTotal() {
+		long total = 0;
+		for (Transfer transfer : transfers.values()) {
+			if (transfer.total < 0)
+				return -1;
+			total += transfer.total;
+		}
+		return total;
+	}
+
+	public synchronized double getBytesPerSecond() {
+		sample(System.nanoTime());
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @return estimated seconds left or -1 if unknown
+	 */
+	public synchronized long getSecondsLeft() {
+		long total = getTotal();
+		double rate = getBytesPerSecond();
+		if (total < 0 || rate < 1)
+			return -1;
+		return (long) ((total - done) / rate);
+	}
+
+	public synchronized List<Transfer> getTransfers() {
+		List<Transfer> res = new ArrayList<>();
+		for (Transfer transfer : transfers.values())
+			res.add(new Transfer(transfer));
+		return res;
+	}
+
+	@Override
+	public synchronized String toString() {
+		long total = getTotal();
+		StringBuilder sb = new StringBuilder("Downloaded ").append(formatBytes(done));
+		if (total >= 0)
+			sb.append(" of ").append(formatBytes(total));
+		sb.append(", ").append(formatBytes((long) getBytesPerSecond())).append("/s");
+		long secondsLeft = getSecondsLeft();
+		if (secondsLeft >= 0)
+			sb.append(String.format(", %d:%02d left", secondsLeft / 60, secondsLeft % 60));
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the current state atomically, so the file can be polled by other processes.
+	 */
+	public void writeTo(File file) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("done", Long.toString(getDone()));
+		props.setProperty("total", Long.toString(getTotal()));
+		props.setProperty("bytesPerSecond", Long.toString((long) getBytesPerSecond()));
+		props.setProperty("secondsLeft", Long.toString(getSecondsLeft()));
+		for (Transfer transfer : getTransfers()) {
+			props.setProperty("artifact." + transfer.getArtifact(), transfer.getDone() + "/" + transfer.getTotal()
+					+ (transfer.isCompleted() ? " completed" : ""));
+		}
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tmpFile.toPath())) {
+			props.store(out, toString());
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public static String formatBytes(long bytes) {
+		if (bytes < 1024)
+			return bytes + " B";
+		if (bytes < 1024 * 1024)
+			return String.format("%.1f KB", bytes / 1024.0);
+		if (bytes < 1024L * 1024 * 1024)
+			return String.format("%.1f MB", bytes / (1024.0 * 1024));
+		return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+	}
+
+	public static class Transfer {
+
+		private final String artifact;
+		private long done;
+		private long total;
+		private boolean completed;
+
+		Transfer(String artifact, long total) {
+			this.artifact = artifact;
+			this.total = total;
+		}
+
+		Transfer(Transfer transfer) {
+			artifact = transfer.artifact;
+			done = transfer.done;
+			total = transfer.total;
+			completed = transfer.completed;
+		}
+
+		public String getArtifact() {
+			return artifact;
+		}
+
+		public long getDone() {
+			return done;
+		}
+
+		/**
+		 * @return size of the artifact or -1 if not known
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		public boolean isCompleted() {
+			return completed;
+		}
+	}
+}
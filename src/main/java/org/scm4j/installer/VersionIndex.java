@@ -0,0 +1,209 @@
+package org.scm4j.installer;
+
+import org.apache.maven.artifact.versioning.ComparableVersion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Released versions of a product parsed once and sorted latest first, so the latest version, comparison with the
+ * installed version and ranges are answered without parsing. Snapshots are not indexed.
+ */
+public class VersionIndex {
+
+	private final Version[] versions;
+	private final boolean[] visible;
+	private final Map<String, Version> byText;
+	private final List<String> allVersions;
+	private final List<String> visibleVersions;
+
+	public VersionIndex(Map<String, Boolean> versionsVisibility) {
+		List<Version> parsed = new ArrayList<>(versionsVisibility.size());
+		for (String version : versionsVisibility.keySet()) {
+			if (!version.contains("-SNAPSHOT"))
+				parsed.add(Version.parse(version));
+		}
+		parsed.sort(Collections.reverseOrder());
+		versions = parsed.toArray(new Version[0]);
+		visible = new boolean[versions.length];
+		byText = new HashMap<>(versions.length * 2);
+		List<String> all = new ArrayList<>(versions.length);
+		List<String> visibleOnly = new ArrayList<>(versions.length);
+		for (int i = 0; i < versions.length; i++) {
+			String text = versions[i].toString();
+			visible[i] = Boolean.TRUE.equals(versionsVisibility.get(text));
+			byText.put(text, versions[i]);
+			all.add(text);
+			if (visible[i])
+				visibleOnly.add(text);
+		}
+		allVersions = Collections.unmodifiableList(all);
+		visibleVersions = Collections.unmodifiableList(visibleOnly);
+	}
+
+	/**
+	 * @return versions latest first
+	 */
+	public List<String> list(boolean showHiddenVersions) {
+		return showHiddenVersions ? allVersions : visibleVersions;
+	}
+
+	/**
+	 * @return the latest version or null if there are no versions
+	 */
+	public String getLatest(boolean showHiddenVersions) {
+		List<String> list = list(showHiddenVersions);
+		return list.isEmpty() ? null : list.get(0);
+	}
+
+	public boolean isEmpty() {
+		return versions.length == 0;
+	}
+
+	/**
+	 * @return true if there is a version newer than the installed one
+	 */
+	public boolean hasNewerThan(String installedVersion, boolean showHiddenVersions) {
+		String latest = getLatest(showHiddenVersions);
+		return latest != null && compare(latest, installedVersion) > 0;
+	}
+
+	/**
+	 * @return versions from the lower to the upper bound inclusive, latest first
+	 */
+	public List<String> range(String lowerBound, String upperBound, boolean showHiddenVersions) {
+		int from = lowerIndex(find(upperBound));
+		int to = upperIndex(find(lowerBound));
+		List<String> res = new ArrayList<>();
+		for (int i = from; i < to; i++) {
+			if (showHiddenVersions || visible[i])
+				res.add(versions[i].toString());
+		}
+		return res;
+	}
+
+	/**
+	 * @return index of the first version not newer than the given one
+	 */
+	private int lowerIndex(Version version) {
+		int low = 0;
+		int high = versions.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (versions[mid].compareTo(version) > 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return index of the first version older than the given one
+	 */
+	private int upperIndex(Version version) {
+		int low = 0;
+		int high = versions.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (versions[mid].compareTo(version) >= 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private Version find(String version) {
+		Version res = byText.get(version);
+		return res != null ? res : Version.parse(version);
+	}
+
+	/**
+	 * Compares versions the way maven does, indexed versions are not parsed again.
+	 */
+	public int compare(String version1, String version2) {
+		return find(version1).compareTo(find(version2));
+	}
+
+	/**
+	 * Version parsed to numeric components, maven {@link ComparableVersion} is used only if the numbers are equal
+	 * and one of the versions has a qualifier.
+	 */
+	static final class Version implements Comparable<Version> {
+
+		private static final int[] NO_NUMBERS = new int[0];
+
+		private final String text;
+		private final int[] numbers;
+		private final boolean qualified;
+		private ComparableVersion comparable;
+
+		private Version(String text, int[] numbers, boolean qualified) {
+			this.text = text;
+			this.numbers = numbers;
+			this.qualified = qualified;
+		}
+
+		static Version parse(String text) {
+			int[] numbers = new int[4];
+			int count = 0;
+			int value = 0;
+			boolean digits = false;
+			int i = 0;
+			for (; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c >= '0' && c <= '9' && value < Integer.MAX_VALUE / 10) {
+					value = value * 10 + c - '0';
+					digits = true;
+				} else if (c == '.' && digits) {
+					if (count == numbers.length)
+						numbers = Arrays.copyOf(numbers, count * 2);
+					numbers[count++] = value;
+					value = 0;
+					digits = false;
+				} else {
+					break;
+				}
+			}
+			if (digits) {
+				if (count == numbers.length)
+					numbers = Arrays.copyOf(numbers, count + 1);
+				numbers[count++] = value;
+			}
+			// trailing zeros do not count, 1.0 equals 1
+			while (count > 0 && numbers[count - 1] == 0)
+				count--;
+			return new Version(text, count == 0 ? NO_NUMBERS : Arrays.copyOf(numbers, count), i < text.length());
+		}
+
+		private ComparableVersion getComparable() {
+			if (comparable == null)
+				comparable = new ComparableVersion(text);
+			return comparable;
+		}
+
+		@Override
+		public int compareTo(Version other) {
+			int length = Math.max(numbers.length, other.numbers.length);
+			for (int i = 0; i < length; i++) {
+				int number = i < numbers.length ? numbers[i] : 0;
+				int otherNumber = i < other.numbers.length ? other.numbers[i] : 0;
+				if (number != otherNumber)
+					return number < otherNumber ? -1 : 1;
+			}
+			if (!qualified && !other.qualified)
+				return 0;
+			return getComparable().compareTo(other.getComparable());
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+}
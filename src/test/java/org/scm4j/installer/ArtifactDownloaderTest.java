@@ -0,0 +1,162 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArtifactDownloaderTest {
+
+	private static final String PATH = "org/scm4j/product/1.0/product-1.0.bin";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private StandInMirror mirror;
+	private BlobStore blobStore;
+	private File downloadsFolder;
+	private ArtifactDownloader downloader;
+
+	@Before
+	public void setUp() throws IOException {
+		mirror = new StandInMirror();
+		blobStore = new BlobStore(tempFolder.newFolder("blobs"));
+		downloadsFolder = tempFolder.newFolder("downloads");
+		downloader = new ArtifactDownloader(new MirrorSelector(Collections.singletonList(mirror.getUrl())),
+				downloadsFolder, blobStore);
+	}
+
+	@After
+	public void tearDown() {
+		mirror.close();
+	}
+
+	static byte[] randomContent(int length) {
+		byte[] content = new byte[length];
+		new Random(length).nextBytes(content);
+		return content;
+	}
+
+	@Test
+	public void testDroppedConnectionIsResumed() throws IOException {
+		byte[] content = randomContent(300 * 1024);
+		mirror.putWithSha1(PATH, content).drop(2, 100 * 1024);
+		File blob = downloader.download(PATH, null, null);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(blob));
+		assertEquals(2, mirror.getRangeRequests());
+		assertEquals(blob, blobStore.getArtifact(PATH));
+		assertFalse(getPart().exists());
+	}
+
+	@Test
+	public void testDroppedConnectionIsRestartedWithoutRanges() throws IOException {
+		byte[] content = randomContent(300 * 1024);
+		mirror.putWithSha1(PATH, content).setRanges(false).drop(1, 100 * 1024);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(downloader.download(PATH, null, null)));
+		assertEquals(0, mirror.getRangeRequests());
+	}
+
+	@Test
+	public void testBadChecksumIsNotStored() throws IOException {
+		mirror.put(PATH, randomContent(1024)).put(PATH + ".sha1", "0123456789012345678901234567890123456789"
+				.getBytes());
+		try {
+			downloader.download(PATH, null, null);
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("does not match"));
+		}
+		assertNull(blobStore.getArtifact(PATH));
+		assertFalse(getPart().exists());
+	}
+
+	@Test
+	public void testCorruptedTransferIsNotStored() throws IOException {
+		byte[] content = randomContent(200 * 1024);
+		mirror.putWithSha1(PATH, content);
+		byte[] corrupted = content.clone();
+		corrupted[1000] ^= 1;
+		mirror.put(PATH, corrupted);
+		try {
+			downloader.download(PATH, null, null);
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("does not match"));
+		}
+		mirror.put(PATH, content);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(downloader.download(PATH, null, null)));
+	}
+
+	@Test
+	public void testChunkedPartIsDiscardedForSequentialDownload() throws IOException {
+		byte[] content = randomContent(300 * 1024);
+		mirror.putWithSha1(PATH, content).setRanges(false);
+		File part = getPart();
+		part.getParentFile().mkdirs();
+		try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+			file.setLength(content.length);
+		}
+		FileUtils.writeStringToFile(new File(part.getPath() + ".chunks"), "", "UTF-8");
+		assertArrayEquals(content, FileUtils.readFileToByteArray(downloader.download(PATH, null, null)));
+	}
+
+	@Test
+	public void testChunksAreResumed() throws IOException {
+		byte[] content = randomContent((int) Settings.CHUNKED_DOWNLOAD_THRESHOLD + 1024);
+		mirror.putWithSha1(PATH, content).drop(2, 1024 * 1024);
+		TransferProgress progress = new TransferProgress();
+		File blob = downloader.download(PATH, progress, null);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(blob));
+		assertTrue(mirror.getRangeRequests() > Settings.CHUNKED_DOWNLOAD_THRESHOLD / Settings.DOWNLOAD_CHUNK_SIZE);
+		assertFalse(new File(getPart().getPath() + ".chunks").exists());
+	}
+
+	@Test
+	public void testArchiveUnreadableByValidatorIsDownloaded() throws IOException {
+		// entry names which are not UTF-8 are valid but ZipInputStream fails on them
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes, Charset.forName("Cp866"))) {
+			zip.putNextEntry(new ZipEntry("\u043e\u0442\u0447\u0435\u0442.txt"));
+			zip.write(randomContent(1024 * 1024));
+			zip.closeEntry();
+		}
+		byte[] content = bytes.toByteArray();
+		String path = "org/scm4j/product/1.0/product-1.0.zip";
+		mirror.putWithSha1(path, content).setRanges(false);
+		assertArrayEquals(content, FileUtils.readFileToByteArray(downloader.download(path, null, null)));
+	}
+
+	@Test
+	public void testStoredArtifactIsNotDownloaded() throws IOException {
+		byte[] content = randomContent(1024);
+		mirror.putWithSha1(PATH, content);
+		File blob = downloader.download(PATH, null, null);
+		int requests = mirror.getRequests();
+		assertEquals(blob, downloader.download(PATH, null, null));
+		// the checksum only
+		assertEquals(requests + 1, mirror.getRequests());
+	}
+
+	private File getPart() {
+		return new File(downloadsFolder, PATH + ".part");
+	}
+}
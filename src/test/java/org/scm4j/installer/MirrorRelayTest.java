@@ -0,0 +1,115 @@
+package org.scm4j.installer;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MirrorRelayTest {
+
+	private static final String PATH = "org/scm4j/product/1.0/product-1.0.bin";
+	// longer than back-offs of the first retries
+	private static final int ENGINE_TIMEOUT_MILLIS = 3000;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private StandInMirror mirror;
+	private MirrorRelay relay;
+
+	@Before
+	public void setUp() throws IOException {
+		mirror = new StandInMirror();
+		MirrorSelector selector = new MirrorSelector(Collections.singletonList(mirror.getUrl()));
+		relay = new MirrorRelay(selector, new ArtifactDownloader(selector, tempFolder.newFolder("downloads"),
+				new BlobStore(tempFolder.newFolder("blobs"))));
+		relay.start(0);
+	}
+
+	@After
+	public void tearDown() {
+		relay.stop();
+		mirror.close();
+	}
+
+	@Test
+	public void testSlowArtifactIsStreamed() throws IOException {
+		byte[] content = ArtifactDownloaderTest.randomContent(192 * 1024);
+		// six seconds to download, the engine would time out waiting for the whole artifact
+		mirror.putWithSha1(PATH, content).setBytesPerSecond(32 * 1024);
+		assertArrayEquals(content, get());
+	}
+
+	@Test
+	public void testDroppedConnectionIsStreamedOnce() throws IOException {
+		byte[] content = ArtifactDownloaderTest.randomContent(300 * 1024);
+		mirror.putWithSha1(PATH, content).drop(2, 100 * 1024);
+		assertArrayEquals(content, get());
+		assertEquals(2, mirror.getRangeRequests());
+	}
+
+	@Test
+	public void testChunkedArtifactIsStreamed() throws IOException {
+		byte[] content = ArtifactDownloaderTest.randomContent((int) Settings.CHUNKED_DOWNLOAD_THRESHOLD + 1024);
+		mirror.putWithSha1(PATH, content).drop(2, 1024 * 1024);
+		assertArrayEquals(content, get());
+	}
+
+	@Test
+	public void testRestartedTransferIsStreamed() throws IOException {
+		byte[] content = ArtifactDownloaderTest.randomContent(300 * 1024);
+		mirror.putWithSha1(PATH, content).setRanges(false).drop(1, 100 * 1024);
+		assertArrayEquals(content, get());
+	}
+
+	@Test
+	public void testBrokenArtifactIsNotCompleted() throws IOException {
+		byte[] content = ArtifactDownloaderTest.randomContent(200 * 1024);
+		mirror.putWithSha1(PATH, content);
+		byte[] corrupted = content.clone();
+		corrupted[1000] ^= 1;
+		mirror.put(PATH, corrupted);
+		try {
+			// the connection is closed before the last byte
+			assertTrue(get().length < content.length);
+		} catch (IOException e) {
+			// incomplete response
+		}
+		mirror.put(PATH, content);
+		assertArrayEquals(content, get());
+	}
+
+	@Test
+	public void testMissingArtifact() throws IOException {
+		HttpURLConnection conn = open();
+		assertEquals(HttpURLConnection.HTTP_NOT_FOUND, conn.getResponseCode());
+	}
+
+	private byte[] get() throws IOException {
+		HttpURLConnection conn = open();
+		try (InputStream in = conn.getInputStream()) {
+			return IOUtils.toByteArray(in);
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	private HttpURLConnection open() throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(relay.getRepositoryUrls()[0] + '/' + PATH)
+				.openConnection();
+		conn.setReadTimeout(ENGINE_TIMEOUT_MILLIS);
+		return conn;
+	}
+}
@@ -0,0 +1,86 @@
+package org.scm4j.installer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MirrorSelectorTest {
+
+	private static final String PATH = "org/scm4j/product/maven-metadata.xml";
+	private static final byte[] METADATA = "<metadata/>".getBytes();
+
+	private StandInMirror fast;
+	private StandInMirror slow;
+	private MirrorSelector selector;
+
+	@Before
+	public void setUp() throws IOException {
+		fast = new StandInMirror().put(PATH, METADATA);
+		slow = new StandInMirror().put(PATH, METADATA).setLatency(Settings.HEDGE_DELAY_MILLIS * 3);
+		selector = new MirrorSelector(Arrays.asList(slow.getUrl(), fast.getUrl()));
+	}
+
+	@After
+	public void tearDown() {
+		fast.close();
+		slow.close();
+	}
+
+	@Test
+	public void testFetchIsHedgedToNextMirror() throws IOException {
+		// both are unknown, so the first listed slow one is tried first
+		long start = System.currentTimeMillis();
+		MirrorSelector.Response response = selector.fetch(PATH, "GET", Collections.emptyMap());
+		assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+		assertArrayEquals(METADATA, response.getBody());
+		assertEquals(fast.getUrl(), response.getMirror().getUrl());
+		assertTrue(System.currentTimeMillis() - start < Settings.HEDGE_DELAY_MILLIS * 3);
+	}
+
+	@Test
+	public void testFastMirrorIsRankedFirst() throws Exception {
+		for (MirrorSelector.Mirror mirror : selector.getMirrors()) {
+			long start = System.nanoTime();
+			HttpURLConnection conn = MirrorSelector.open(mirror, PATH, "GET", Collections.emptyMap());
+			conn.getResponseCode();
+			mirror.recordSuccess(System.nanoTime() - start, 0, 0);
+		}
+		MirrorSelector.Mirror best = selector.rank(false).get(0);
+		assertEquals(fast.getUrl(), best.getUrl());
+		assertSame(best, selector.fetch(PATH, "GET", Collections.emptyMap()).getMirror());
+		assertEquals(1, slow.getRequests());
+	}
+
+	@Test
+	public void testFailedMirrorIsRankedLast() throws IOException {
+		fast.close();
+		MirrorSelector.Response response = selector.fetch(PATH, "GET", Collections.emptyMap());
+		assertEquals(slow.getUrl(), response.getMirror().getUrl());
+		assertEquals(slow.getUrl(), selector.rank(false).get(0).getUrl());
+		assertEquals(slow.getUrl(), selector.rank(true).get(0).getUrl());
+	}
+
+	@Test
+	public void testNotFoundIsAnswer() throws IOException {
+		MirrorSelector.Response response = selector.fetch("org/scm4j/missing/maven-metadata.xml", "GET",
+				Collections.emptyMap());
+		assertEquals(HttpURLConnection.HTTP_NOT_FOUND, response.getCode());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNoMirrorAnswered() throws IOException {
+		fast.close();
+		slow.close();
+		selector.fetch(PATH, "GET", Collections.emptyMap());
+	}
+}
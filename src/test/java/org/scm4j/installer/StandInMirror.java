@@ -0,0 +1,149 @@
+package org.scm4j.installer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local HTTP stand-in of a mirror with injected latency, dropped connections and slow transfers.
+ */
+class StandInMirror implements AutoCloseable {
+
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+	private final HttpServer server;
+	private final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger rangeRequests = new AtomicInteger();
+	private final AtomicInteger drops = new AtomicInteger();
+	private volatile long latencyMillis;
+	private volatile boolean ranges = true;
+	private volatile long dropAfter = -1;
+	private volatile long bytesPerSecond;
+
+	StandInMirror() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(Executors.newCachedThreadPool(CatalogLoader.daemonThreads("stand-in")));
+		server.start();
+	}
+
+	String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/repo";
+	}
+
+	StandInMirror put(String path, byte[] content) {
+		resources.put(path, content);
+		return this;
+	}
+
+	StandInMirror putWithSha1(String path, byte[] content) {
+		put(path, content);
+		return put(path + ".sha1", Checksums.toHex(Checksums.newDigest(Checksums.SHA1).digest(content)).getBytes());
+	}
+
+	StandInMirror setLatency(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+		return this;
+	}
+
+	StandInMirror setRanges(boolean ranges) {
+		this.ranges = ranges;
+		return this;
+	}
+
+	/**
+	 * Closes the connections of the next transfers after the given number of bytes.
+	 */
+	StandInMirror drop(int times, long afterBytes) {
+		drops.set(times);
+		dropAfter = afterBytes;
+		return this;
+	}
+
+	StandInMirror setBytesPerSecond(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+		return this;
+	}
+
+	int getRequests() {
+		return requests.get();
+	}
+
+	int getRangeRequests() {
+		return rangeRequests.get();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			requests.incrementAndGet();
+			if (latencyMillis > 0)
+				TimeUnit.MILLISECONDS.sleep(latencyMillis);
+			String path = exchange.getRequestURI().getPath().substring("/repo/".length());
+			byte[] content = resources.get(path);
+			if (content == null) {
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+				return;
+			}
+			if (ranges)
+				exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+			if (exchange.getRequestMethod().equals("HEAD")) {
+				exchange.getResponseHeaders().set("Content-Length", Integer.toString(content.length));
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+				return;
+			}
+			int from = 0;
+			int to = content.length;
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			Matcher matcher = range == null || !ranges ? null : RANGE.matcher(range);
+			if (matcher != null && matcher.matches()) {
+				rangeRequests.incrementAndGet();
+				from = Integer.parseInt(matcher.group(1));
+				if (!matcher.group(2).isEmpty())
+					to = Math.min(to, Integer.parseInt(matcher.group(2)) + 1);
+				exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + (to - 1) + "/"
+						+ content.length);
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_PARTIAL, to - from);
+			} else {
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, content.length);
+			}
+			long limit = to - from;
+			if (dropAfter >= 0 && limit > dropAfter && drops.getAndDecrement() > 0)
+				limit = Math.min(limit, dropAfter);
+			OutputStream out = exchange.getResponseBody();
+			int step = bytesPerSecond > 0 ? (int) Math.max(1, bytesPerSecond / 10) : Settings.COPY_BUFFER_SIZE;
+			for (int position = from; position < from + limit; position += step) {
+				out.write(content, position, (int) Math.min(step, from + limit - position));
+				out.flush();
+				if (bytesPerSecond > 0)
+					TimeUnit.MILLISECONDS.sleep(100);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// closing before all the bytes are written drops the connection
+			try {
+				exchange.close();
+			} catch (RuntimeException e) {
+				// dropped
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}